@@ -9,3 +9,4 @@
 set -e # Exit on failure
 
 mvn -q -B package -Ddir=/tmp/codecrafters-build-shell-java
+"$(dirname "$0")/../create_cds_archive.sh"
@@ -8,4 +8,10 @@
 
 set -e # Exit on failure
 
+# the class-data-sharing archive from compile is used when present; JVM warnings go to stderr so
+# an archive that no longer matches the jar cannot print into the shell's stdout
+JSA=/tmp/codecrafters-build-shell-java/codecrafters-shell.jsa
+if [ -f "$JSA" ]; then
+  exec java -XX:SharedArchiveFile="$JSA" -Xlog:disable -Xlog:all=warning:stderr --enable-preview -jar /tmp/codecrafters-build-shell-java/codecrafters-shell.jar "$@"
+fi
 exec java --enable-preview -jar /tmp/codecrafters-build-shell-java/codecrafters-shell.jar "$@"
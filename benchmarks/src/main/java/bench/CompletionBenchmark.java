@@ -0,0 +1,82 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commands.PathIndex;
+import repl.TabCompletion;
+
+// one Tab press over a synthetic PATH of 10k executables spread across 10 directories.
+// prefix "tool-4" leaves 1111 candidates, "tool-42" 111 and "tool-4242" completes uniquely. index=warm reuses the PrefixIndex; index=cold builds a fresh PathIndex each time (first Tab).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class CompletionBenchmark {
+
+    private static final int EXECUTABLES = 10_000;
+    private static final int DIRECTORIES = 10;
+
+    @Param({"tool-4", "tool-42", "tool-4242"})
+    public String prefix;
+
+    @Param({"warm", "cold"})
+    public String index;
+
+    private Path root;
+    private String path;
+    private TabCompletion completion;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("completion-path");
+        StringBuilder dirs = new StringBuilder();
+        for (int d = 0; d < DIRECTORIES; d++) {
+            Path dir = Files.createDirectory(root.resolve("bin" + d));
+            if (d > 0) dirs.append(':');
+            dirs.append(dir);
+        }
+        for (int i = 0; i < EXECUTABLES; i++) {
+            Path file = Files.createFile(root.resolve("bin" + (i % DIRECTORIES)).resolve("tool-" + i));
+            file.toFile().setExecutable(true);
+        }
+        path = dirs.toString();
+        completion = new TabCompletion(new PathIndex(() -> path));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public StringBuilder complete() {
+        TabCompletion tab = index.equals("warm") ? completion : new TabCompletion(new PathIndex(() -> path));
+        StringBuilder buffer = new StringBuilder(prefix);
+        tab.completeLine(buffer);
+        // forget the first Tab so the next op is not a second Tab that prints the match list
+        tab.resetTab();
+        return buffer;
+    }
+}
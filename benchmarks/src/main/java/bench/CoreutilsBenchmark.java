@@ -0,0 +1,76 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parse.ParsedCommand;
+import parse.Parser;
+import pipes.PipelineRunner;
+
+// commands per second for the small coreutils calls scripts are full of, over a 10k-line file:
+// inProcess=true runs cat/head/tail/wc/grep as builtins, false forks the binaries for the same line.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class CoreutilsBenchmark {
+
+    @Param({"head", "tail", "wc", "grep", "pipeline"})
+    public String command;
+
+    @Param({"true", "false"})
+    public boolean inProcess;
+
+    private Path file;
+    private List<ParsedCommand> pipeline;
+    private final PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) text.append("line ").append(i).append(i % 100 == 0 ? " needle\n" : "\n");
+        file = Files.createTempFile("coreutils", ".txt");
+        Files.writeString(file, text);
+
+        String line = switch (command) {
+            case "head" -> "head -n 5 " + file;
+            case "tail" -> "tail -n 5 " + file;
+            case "wc" -> "wc -l " + file;
+            case "grep" -> "grep needle " + file;
+            default -> "cat " + file + " | grep needle | wc -l";
+        };
+        pipeline = new Parser().parse(line).pipelines.get(0).commands;
+        ShellFixture.inProcessCoreutils(inProcess);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ShellFixture.inProcessCoreutils(true);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int run() throws Exception {
+        return PipelineRunner.run(pipeline, out, out, ShellFixture.BUILTIN_RUNNER);
+    }
+}
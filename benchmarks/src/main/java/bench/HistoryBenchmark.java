@@ -0,0 +1,80 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import history.History;
+
+// history at 1M entries. load = startup with that HISTFILE up to the first Up arrow;
+// search = one Ctrl-R lookup of `query` over the loaded entries (the index is built during warmup).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class HistoryBenchmark {
+
+    private static final int ENTRIES = 1_000_000;
+
+    private Path histFile;
+    private History loaded;
+
+    @State(Scope.Benchmark)
+    public static class Search {
+        @Param({"ls", "git commit", "no such command"})
+        public String query;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        histFile = Files.createTempFile("history", ".txt");
+        try (BufferedWriter writer = Files.newBufferedWriter(histFile)) {
+            for (int i = 0; i < ENTRIES; i++) {
+                writer.write(switch (i % 5) {
+                    case 0 -> "git commit -m 'change " + i + "'";
+                    case 1 -> "ls -la /var/log/app" + (i % 1000);
+                    case 2 -> "make -j" + (i % 16) + " target" + (i % 300);
+                    case 3 -> "cd ~/projects/repo" + (i % 50);
+                    default -> "grep -rn pattern" + (i % 7000) + " src";
+                });
+                writer.newLine();
+            }
+        }
+        loaded = new History();
+        loaded.loadIfExists(histFile.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(histFile);
+    }
+
+    @Benchmark
+    public String load() {
+        History history = new History();
+        history.loadIfExists(histFile.toString());
+        return history.getPrevious();
+    }
+
+    @Benchmark
+    public int search(Search search) {
+        return loaded.search(search.query, loaded.nextId());
+    }
+}
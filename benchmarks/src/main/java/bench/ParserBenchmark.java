@@ -0,0 +1,65 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parse.CommandList;
+import parse.ParsedCommand;
+import parse.Parser;
+
+// parses one command line into the full AST; parseCommand keeps only its first command.
+// run with `-prof gc` for allocations/op (gc.alloc.rate.norm). "typical" is an interactive-sized
+// line, "10k" a generated 10 KB one.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ParserBenchmark {
+
+    private static final String TYPICAL =
+        "grep -v \"foo bar\" 'my notes.txt' | sort | uniq -c > counts.txt 2>> errors.log && echo done";
+
+    @Param({"typical", "10k"})
+    public String line;
+
+    private final Parser parser = new Parser();
+    private String input;
+
+    @Setup
+    public void setup() {
+        if (line.equals("typical")) {
+            input = TYPICAL;
+            return;
+        }
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; big.length() < 10 * 1024; i++) {
+            if (i > 0) big.append(i % 8 == 0 ? " && " : " | ");
+            big.append("echo plain-").append(i).append(" \"double ").append(i).append("\" 'single' esc\\ aped");
+            if (i % 5 == 0) big.append(" > out").append(i).append(".txt");
+        }
+        input = big.toString();
+    }
+
+    @Benchmark
+    public CommandList parse() {
+        return parser.parse(input);
+    }
+
+    @Benchmark
+    public ParsedCommand parseCommand() {
+        return parser.parseCommand(input);
+    }
+}
@@ -0,0 +1,97 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parse.ParsedCommand;
+import parse.Parser;
+import pipes.PipelineRunner;
+import pipes.Pumps;
+
+// one command line per op, moving a 1 MB payload through `stages` stages. source=builtin starts with
+// `echo` (builtin -> external hand-off through the JVM), source=external with `cat` on a file of the
+// same bytes (external -> external over OS pipes). the in-process cat is switched off, so every other
+// stage is a process. the aux counters report the pump threads, bytes and flushes the shell spent
+// per op; they stay at zero while every stage is wired without a pump.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class PipelineShapesBenchmark {
+
+    private static final int PAYLOAD_BYTES = 1 << 20;
+
+    @Param({"builtin", "external"})
+    public String source;
+
+    @Param({"2", "4", "8"})
+    public int stages;
+
+    private Path payloadFile;
+    private List<ParsedCommand> pipeline;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class PumpCounters {
+        public long pumps;
+        public long bytes;
+        public long flushes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            pumps = bytes = flushes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        ShellFixture.inProcessCoreutils(false);
+        String payload = "x".repeat(PAYLOAD_BYTES - 1);
+        payloadFile = Files.createTempFile("pipeline-shapes", ".txt");
+        Files.writeString(payloadFile, payload + "\n");
+
+        StringBuilder line = new StringBuilder(source.equals("builtin") ? "echo " + payload : "cat " + payloadFile);
+        for (int i = 1; i < stages; i++) line.append(" | cat");
+        line.append(" > /dev/null");
+        pipeline = new Parser().parse(line.toString()).pipelines.get(0).commands;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(payloadFile);
+    }
+
+    @Benchmark
+    public int run(PumpCounters counters) throws Exception {
+        long pumps = Pumps.pumpsStarted();
+        long bytes = Pumps.bytesMoved();
+        long flushes = Pumps.flushes();
+
+        int status = PipelineRunner.run(pipeline, System.out, System.err, ShellFixture.BUILTIN_RUNNER);
+
+        counters.pumps += Pumps.pumpsStarted() - pumps;
+        counters.bytes += Pumps.bytesMoved() - bytes;
+        counters.flushes += Pumps.flushes() - flushes;
+        return status;
+    }
+}
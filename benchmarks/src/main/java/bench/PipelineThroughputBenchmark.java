@@ -0,0 +1,76 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import parse.ParsedCommand;
+import parse.Parser;
+import pipes.PipelineRunner;
+
+// streams 1 GB of zeros through `head | cat | ... | cat > /dev/null` with `stages` processes (the
+// in-process head and cat are switched off).
+// the "megabytes" secondary result is MB/s; engine=sh runs the same line under /bin/sh for comparison.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class PipelineThroughputBenchmark {
+
+    private static final long STREAM_BYTES = 1L << 30;
+
+    @Param({"2", "4", "8"})
+    public int stages;
+
+    @Param({"shell", "sh"})
+    public String engine;
+
+    private String commandLine;
+    private List<ParsedCommand> pipeline;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        ShellFixture.inProcessCoreutils(false);
+        StringBuilder line = new StringBuilder("head -c " + STREAM_BYTES + " /dev/zero");
+        for (int i = 1; i < stages; i++) line.append(" | cat");
+        line.append(" > /dev/null");
+        commandLine = line.toString();
+        pipeline = new Parser().parse(commandLine).pipelines.get(0).commands;
+    }
+
+    @Benchmark
+    public void stream(Throughput throughput) throws Exception {
+        if (engine.equals("sh")) {
+            new ProcessBuilder("/bin/sh", "-c", commandLine).inheritIO().start().waitFor();
+        } else {
+            PipelineRunner.run(pipeline, System.out, System.err, ShellFixture.BUILTIN_RUNNER);
+        }
+        throughput.megabytes += STREAM_BYTES >> 20;
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import commands.Builtins;
+import commands.Coreutils;
+import history.History;
+import parse.ParsedCommand;
+import pipes.PipelineRunner;
+
+// the same builtin wiring Main uses, for driving PipelineRunner from benchmarks
+final class ShellFixture {
+
+    static final History HISTORY = new History();
+
+    static final PipelineRunner.BullitinRunner BUILTIN_RUNNER = new PipelineRunner.BullitinRunner() {
+        @Override
+        public int run(ParsedCommand pc, PrintStream out, PrintStream err) throws IOException {
+            return run(pc, InputStream.nullInputStream(), out, err);
+        }
+
+        @Override
+        public int run(ParsedCommand pc, InputStream in, PrintStream out, PrintStream err) throws IOException {
+            try { return Builtins.run(pc, in, out, err, HISTORY); }
+            catch (Exception ex) { throw new IOException(ex); }
+        }
+
+        @Override
+        public boolean isShellBuiltin(String commandName) {
+            return Builtins.isBuiltin(commandName);
+        }
+
+        @Override
+        public boolean runsInProcess(ParsedCommand pc) {
+            return Builtins.runsInProcess(pc.args);
+        }
+    };
+
+    private ShellFixture() {}
+
+    // benchmarks about process pipelines switch these off, like `enable -n cat head tail wc grep`
+    static void inProcessCoreutils(boolean enabled) {
+        for (String name : Coreutils.names()) Coreutils.setEnabled(name, enabled);
+    }
+}
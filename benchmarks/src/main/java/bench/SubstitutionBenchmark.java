@@ -0,0 +1,66 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import commands.CommandSubstitution;
+import parse.Parser;
+import parse.Pipeline;
+
+// expansions per second of `echo $(...)`: a builtin (pwd) and a coreutil (head) run in the shell,
+// `date` forks, and `four` expands four coreutil substitutions of one line concurrently
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class SubstitutionBenchmark {
+
+    @Param({"pwd", "head", "date", "four"})
+    public String command;
+
+    private Path file;
+    private Pipeline pipeline;
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1_000; i++) text.append("line ").append(i).append(i % 100 == 0 ? " needle\n" : "\n");
+        file = Files.createTempFile("substitution", ".txt");
+        Files.writeString(file, text);
+
+        String line = switch (command) {
+            case "pwd" -> "echo $(pwd)";
+            case "head" -> "echo $(head -n 1 " + file + ")";
+            case "date" -> "echo $(date +%s)";
+            default -> "echo $(head -n 1 " + file + ") $(wc -l " + file + ") $(tail -n 1 " + file + ") $(grep -c needle " + file + ")";
+        };
+        pipeline = new Parser().parse(line).pipelines.get(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Pipeline expand() throws Exception {
+        return CommandSubstitution.expand(pipeline, ShellFixture.BUILTIN_RUNNER);
+    }
+}
@@ -0,0 +1,122 @@
+#!/bin/sh
+#
+# Runs command lines that the in-process coreutils (cat, head, tail, wc, grep, tee) take through
+# the shell, and the same lines through /bin/sh with the system binaries, and diffs stdout, stderr
+# and exit status. The cases stay within the options Coreutils.handles() accepts, so none of them
+# forks the binary inside the shell. Build first with ./your_program.sh; SHELL_CMD overrides how
+# the shell is started. Exits 1 if any case differs.
+
+BUILD_DIR=/tmp/codecrafters-build-shell-java
+JAR="$BUILD_DIR/codecrafters-shell.jar"
+SHELL_CMD=${SHELL_CMD:-"java --enable-preview -jar $JAR"}
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK" || exit 2
+
+printf 'foo bar\nBaz qux\n\nfoo\tfoo  foo\nlast line\n' > a.txt
+printf 'one\ntwo foo\nthree\n' > b.txt
+printf 'no trailing newline\nfoo at the end' > nonl.txt
+printf 'a.b\naxb\n' > dots.txt
+: > empty.txt
+awk 'BEGIN { for (i = 1; i <= 20000; i++) printf "line %d %s\n", i, (i % 7 == 0 ? "foo" : "bar") }' > big.txt
+awk 'BEGIN { for (i = 0; i < 70000; i++) printf "x"; printf "\nfoo\n" }' > long.txt
+
+total=0
+failed=0
+
+check() {
+  total=$((total + 1))
+  rm -f t1 t2
+  sh -c "$1" > expected.out 2> expected.err
+  expected=$?
+  rm -f t1 t2
+  $SHELL_CMD -c "$1" > actual.out 2> actual.err
+  actual=$?
+  if [ "$expected" -ne "$actual" ] || ! cmp -s expected.out actual.out || ! cmp -s expected.err actual.err; then
+    failed=$((failed + 1))
+    printf 'FAIL: %s\n  status: sh %d, shell %d\n' "$1" "$expected" "$actual"
+    diff expected.out actual.out | head -n 10 | sed 's/^/  out /'
+    diff expected.err actual.err | head -n 10 | sed 's/^/  err /'
+  fi
+}
+
+check 'cat a.txt'
+check 'cat a.txt b.txt nonl.txt'
+check 'cat empty.txt'
+check 'cat missing.txt'
+check 'cat a.txt missing.txt b.txt'
+check 'cat -- a.txt'
+check 'cat big.txt'
+check 'cat a.txt | cat - b.txt'
+check 'cat a.txt > t1; cat t1'
+
+check 'head a.txt'
+check 'head -n 2 a.txt'
+check 'head -n2 a.txt'
+check 'head -3 big.txt'
+check 'head -n 0 a.txt'
+check 'head -c 5 a.txt'
+check 'head -c 70001 long.txt'
+check 'head a.txt b.txt'
+check 'head -n 1 a.txt missing.txt b.txt'
+check 'head missing.txt a.txt b.txt'
+check 'head -n 5 nonl.txt'
+check 'cat big.txt | head -n 4'
+
+check 'tail a.txt'
+check 'tail -n 2 a.txt'
+check 'tail -2 big.txt'
+check 'tail -n 0 a.txt'
+check 'tail -c 7 a.txt'
+check 'tail -n 1 nonl.txt'
+check 'tail -n 1 long.txt'
+check 'tail -n 30000 big.txt'
+check 'tail a.txt b.txt'
+check 'tail missing.txt'
+check 'tail -n 1 missing.txt a.txt missing.txt b.txt'
+check 'cat big.txt | tail -n 3'
+
+check 'wc a.txt'
+check 'wc -l a.txt'
+check 'wc -w a.txt'
+check 'wc -c a.txt'
+check 'wc -lw a.txt'
+check 'wc -l -c a.txt'
+check 'wc a.txt b.txt nonl.txt'
+check 'wc empty.txt'
+check 'wc big.txt long.txt'
+check 'wc missing.txt a.txt'
+check 'cat a.txt | wc'
+check 'cat big.txt | wc -l'
+check 'cat a.txt | wc -c'
+
+check 'grep foo a.txt'
+check 'grep zzz a.txt'
+check 'grep -i BAZ a.txt'
+check 'grep -v foo a.txt'
+check 'grep -c foo a.txt b.txt'
+check 'grep -n foo a.txt'
+check 'grep -in FOO a.txt b.txt'
+check 'grep -vc foo big.txt'
+check 'grep -F a.b dots.txt'
+check 'grep foo nonl.txt'
+check 'grep foo long.txt'
+check 'grep -q foo a.txt'
+check 'grep -q zzz a.txt'
+check 'grep foo missing.txt'
+check 'grep foo missing.txt a.txt'
+check 'grep -q foo missing.txt a.txt'
+check 'grep -q zzz missing.txt a.txt'
+check 'grep -- -x a.txt'
+check 'cat big.txt | grep -c foo'
+check 'cat a.txt | grep -n foo - b.txt'
+
+check 'cat a.txt | tee t1; cat t1'
+check 'cat a.txt | tee t1 t2 | wc -l; cat t2'
+check 'cat a.txt > t1; cat b.txt | tee -a t1; cat t1'
+check 'cat a.txt | tee missing/t1'
+check 'cat big.txt | tee t1 | tail -n 1; wc -l t1'
+
+printf '%d cases, %d differ\n' "$total" "$failed"
+[ "$failed" -eq 0 ]
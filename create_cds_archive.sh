@@ -0,0 +1,23 @@
+#!/bin/sh
+#
+# Builds a dynamic class-data-sharing archive next to the assembly jar from a short training run,
+# so later starts map the shell's and the JDK's classes from the archive instead of loading and
+# verifying them. run.sh / your_program.sh pass it to the JVM when it exists.
+#
+# The training run drives the interactive shell through a pty (util-linux `script`) when one is
+# available, and a -c batch line otherwise.
+
+BUILD_DIR=/tmp/codecrafters-build-shell-java
+JAR="$BUILD_DIR/codecrafters-shell.jar"
+JSA="$BUILD_DIR/codecrafters-shell.jsa"
+
+rm -f "$JSA"
+JAVA="java -XX:ArchiveClassesAtExit=$JSA -Xlog:disable -Xlog:all=warning:stderr --enable-preview -jar $JAR"
+TRAINING='echo warm | cat > /dev/null; type ls > /dev/null; pwd > /dev/null'
+
+if command -v script > /dev/null 2>&1; then
+  printf '%s\nexit\n' "$TRAINING" | HISTFILE= script -qec "$JAVA" /dev/null > /dev/null 2>&1 || true
+fi
+if [ ! -f "$JSA" ]; then
+  $JAVA -c "$TRAINING" > /dev/null 2>&1 || true
+fi
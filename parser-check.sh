@@ -0,0 +1,162 @@
+#!/bin/sh
+#
+# Checks the command-line parser through the shell: one line per token kind (words, operators,
+# redirections, here-documents), the quoting rules, and the syntax errors. Lines the shell accepts
+# run under bash as well, and stdout, exit status and the files they write must match; lines it
+# rejects must print the given message on stderr, run nothing, and exit 2. Build first with
+# ./your_program.sh; SHELL_CMD overrides how the shell is started. Exits 1 if any case fails.
+
+BUILD_DIR=/tmp/codecrafters-build-shell-java
+JAR="$BUILD_DIR/codecrafters-shell.jar"
+SHELL_CMD=${SHELL_CMD:-"java --enable-preview -jar $JAR"}
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK" || exit 2
+
+total=0
+failed=0
+
+# runs $1 in a fresh directory; leaves stdout, stderr and the files it wrote in $2/
+run() {
+  rm -rf "$2" && mkdir "$2" && (cd "$2" && $3 -c "$1" > ../"$2".out 2> ../"$2".err)
+}
+
+same() {
+  total=$((total + 1))
+  run "$1" expected bash
+  expected=$?
+  run "$1" actual "$SHELL_CMD"
+  actual=$?
+  if [ "$expected" -ne "$actual" ] || ! cmp -s expected.out actual.out || ! diff -r expected actual > /dev/null; then
+    failed=$((failed + 1))
+    printf 'FAIL: %s\n  status: bash %d, shell %d\n' "$1" "$expected" "$actual"
+    diff expected.out actual.out | head -n 10 | sed 's/^/  out /'
+    diff -r expected actual | head -n 10 | sed 's/^/  files /'
+  fi
+}
+
+error() {
+  total=$((total + 1))
+  run "$1" actual "$SHELL_CMD"
+  actual=$?
+  printf '%s\n' "$2" > expected.err
+  if [ "$actual" -ne 2 ] || [ -s actual.out ] || [ -n "$(ls actual)" ] || ! cmp -s expected.err actual.err; then
+    failed=$((failed + 1))
+    printf 'FAIL: %s\n  status: %d, expected 2\n' "$1" "$actual"
+    diff expected.err actual.err | head -n 10 | sed 's/^/  err /'
+    [ -s actual.out ] && sed 's/^/  out /' actual.out
+    ls actual | sed 's/^/  file /'
+  fi
+}
+
+# words: plain, quoted, substitution
+same 'echo plain words'
+same 'echo   spaced	tab	separated  '
+same "echo 'single quoted'"
+same 'echo "double quoted"'
+same 'echo $(echo substituted)'
+same 'echo `echo backquoted`'
+same 'echo pre$(echo fix)post'
+
+# operators
+same 'echo a | tr a b'
+same 'echo a | cat | cat | tr a b'
+same 'true && echo and'
+same 'false && echo and'
+same 'false || echo or'
+same 'true || echo or'
+same 'echo one; echo two'
+same 'echo one;echo two;'
+same 'echo one
+echo two'
+same 'echo a |
+tr a b'
+same 'true &&
+echo and'
+same 'false ||
+
+echo or'
+same 'echo $(echo a
+echo b) c'
+same 'sleep 0 & echo fg; wait'
+same 'echo bg > f & wait; cat f'
+same 'false && echo no || echo yes; echo end'
+
+# redirections
+same 'echo out > f'
+same 'echo out 1> f'
+same 'echo out >f; echo more >> f'
+same 'echo out>f'
+same 'ls missing 2> e'
+same 'ls missing 2> e; ls missing 2>> e'
+same 'echo a > f | cat'
+same 'echo a > "quoted name"'
+
+# here-documents and here-strings
+same 'cat <<EOF
+line one
+  indented
+EOF'
+same 'cat <<-EOF
+		tabs stripped
+	EOF'
+same "cat <<'EOF'
+\$(not run) \`nor this\`
+EOF"
+same 'cat <<A; cat <<B
+first
+A
+second
+B'
+same 'cat <<< word'
+same 'cat <<<"two words"'
+same 'tr a b <<< abc | cat'
+
+# quoting
+same 'echo a"b"c'"'d'"
+same "echo 'a'\"b\"c"
+same 'echo "" x '"''"' y'
+same 'echo "a  b"   c'
+same "echo 'a | b ; c && d > e'"
+same 'echo "a | b ; c || d 2> e"'
+same 'echo \| \; \> \&'
+same 'echo a\ b'
+same 'echo "a\"b"'
+same 'echo "a\\b"'
+same 'echo "a\nb"'
+same "echo 'a\\nb'"
+same "echo '\"' \"'\""
+same 'echo "$(echo "inner quotes")"'
+same 'echo "x $(echo a   b) y"'
+same 'echo $(echo a   b)'
+same 'echo $(echo ")") $(echo "(")'
+same 'echo $(echo $(echo nested))'
+same 'echo "`echo \"quoted\"`"'
+same 'echo `echo \`echo inner\``'
+same "echo '\$(echo literal)'"
+same 'echo \$x \`y\` \\'
+same 'echo a#b'
+
+# syntax errors
+error '| cat' 'syntax error near unexpected token `|'"'"
+error 'echo a | | cat' 'syntax error near unexpected token `|'"'"
+error 'echo a |' 'syntax error near unexpected token `newline'"'"
+error 'echo a ||' 'syntax error near unexpected token `newline'"'"
+error 'echo a &&' 'syntax error near unexpected token `newline'"'"
+error '&& echo a' 'syntax error near unexpected token `&&'"'"
+error '; ;' 'syntax error near unexpected token `;'"'"
+error '&' 'syntax error near unexpected token `&'"'"
+error 'echo a & &' 'syntax error near unexpected token `&'"'"
+error 'echo >' 'syntax error near unexpected token `newline'"'"
+error 'echo > | cat' 'syntax error near unexpected token `|'"'"
+error 'echo 2>' 'syntax error near unexpected token `newline'"'"
+error 'echo >> ; echo b' 'syntax error near unexpected token `;'"'"
+error 'cat <<' 'syntax error near unexpected token `newline'"'"
+error 'echo $(ls' 'unexpected EOF while looking for matching `)'"'"
+error 'echo "$(echo ")"' 'unexpected EOF while looking for matching `)'"'"
+error 'echo `ls' 'unexpected EOF while looking for matching ``'"'"
+error 'echo > $(ls)' 'command substitution is not supported after `>'"'"
+
+printf '%d cases, %d failed\n' "$total" "$failed"
+[ "$failed" -eq 0 ]
@@ -1,25 +1,52 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import commands.Builtins;
+import commands.CommandSubstitution;
 import commands.ExternalCommand;
 import history.History;
+import jobs.JobTable;
+import metrics.LineMetrics;
+import metrics.Metrics;
+import parse.CommandList;
+import parse.HereDocument;
 import parse.ParsedCommand;
 import parse.Parser;
+import parse.Pipeline;
 import pipes.PipelineRunner;
+import pipes.Pumps;
+import pipes.Redirects;
 import repl.ShellInput;
 
 public class Main {
 
     private static final Parser PARSER = new Parser();
-    private static final History HISTORY = new History();
+    private static final History HISTORY = History.fromEnvironment();
 
     private static final PipelineRunner.BullitinRunner BUILTIN_RUNNER =
         new PipelineRunner.BullitinRunner() {
             @Override
-            public void run(ParsedCommand pc, PrintStream out, PrintStream err) throws IOException {
-                try { Builtins.run(pc, out, err, HISTORY); }
+            public int run(ParsedCommand pc, PrintStream out, PrintStream err) throws IOException {
+                return run(pc, InputStream.nullInputStream(), out, err);
+            }
+
+            @Override
+            public int run(ParsedCommand pc, InputStream in, PrintStream out, PrintStream err) throws IOException {
+                try { return Builtins.run(pc, in, out, err, HISTORY); }
                 catch (Exception ex) { throw new IOException(ex); }
             }
 
@@ -27,48 +54,248 @@ public class Main {
             public boolean isShellBuiltin(String commandName) {
                 return Builtins.isBuiltin(commandName);
             }
+
+            @Override
+            public boolean runsInProcess(ParsedCommand pc) {
+                return Builtins.runsInProcess(pc.args);
+            }
         };
     
     public static void main(String[] args) throws Exception {
+        boolean stats = args.length > 0 && args[0].equals("--stats");
+        int argi = stats ? 1 : 0;
+
+        // batch mode: `-c "cmd"`, a script file, or stdin that is not a terminal
+        if (argi < args.length && args[argi].equals("-c")) {
+            if (argi + 1 == args.length) { System.err.println("-c: option requires an argument"); System.exit(2); }
+            runBatch(new BufferedReader(new StringReader(args[argi + 1])), stats);
+        }
+        if (argi < args.length) {
+            BufferedReader script;
+            try { script = Files.newBufferedReader(Path.of(args[argi])); }
+            catch (IOException e) { System.err.println(args[argi] + ": " + e.getMessage()); System.exit(127); return; }
+            runBatch(script, stats);
+        }
+        Console console = System.console();
+        if (console == null || !console.isTerminal()) {
+            runBatch(new BufferedReader(new InputStreamReader(System.in), 64 * 1024), stats);
+        }
 
         TerminalModeController.setRawMode();
         Runtime.getRuntime().addShutdownHook(new Thread(TerminalModeController::restoreTerminal));
 
         String histFile = System.getenv("HISTFILE");
         if (histFile != null) HISTORY.loadIfExists(histFile);
+        String histShare = System.getenv("HISTSHARE");
+        if (histFile != null && histShare != null && !histShare.isEmpty() && !histShare.equals("0")) {
+            HISTORY.shareFile(histFile);
+        }
 
-        ShellInput shellInput = new ShellInput(HISTORY);
+        ShellInput shellInput = new ShellInput(HISTORY, TerminalModeController::columns);
+        String startupTiming = System.getenv("SHELL_STARTUP_TIMING");
+        if (startupTiming != null) reportStartup(startupTiming);
 
         while(true){
+            JobTable.announceFinished(System.out);
             String line = shellInput.readLine();
             if (line == null) break; 
             if (line.isBlank()) continue;
 
             HISTORY.addEntry(line);
-            try { runOneCommandLine(line); }
+            try { runOneCommandLine(line, shellInput::readContinuationLine, false); }
             catch (Exception e) { System.err.println("Error: " + e.getMessage());}
 
         }
+        // end of input (the terminal went away) exits like `exit`
+        Builtins.exit(new String[] {Builtins.EXIT}, System.err, HISTORY);
     }
 
-    private static void runOneCommandLine(String input) throws Exception {
+    // SHELL_STARTUP_TIMING carries the launch time in epoch nanoseconds (`date +%s%N`); the
+    // difference to now is the time to the first prompt, JVM startup included. see startup-time.sh
+    private static void reportStartup(String launchedAtNanos) {
+        Instant now = Instant.now();
+        long nowNanos = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+        try {
+            System.err.printf("startup: %.1f ms to first prompt%n", (nowNanos - Long.parseLong(launchedAtNanos.trim())) / 1e6);
+        } catch (NumberFormatException e) {
+            System.err.println("SHELL_STARTUP_TIMING: expected epoch nanoseconds");
+        }
+    }
 
-        ParsedCommand parsed = PARSER.parseCommand(input);
+    // no raw mode, prompt, echo or history. stdout is block-buffered: the runners flush it before a
+    // child inherits the descriptor, and the shutdown hook flushes it on `exit` and at the end of input.
+    // exits with the status of the last command line, like `sh -c`.
+    private static void runBatch(BufferedReader reader, boolean stats) throws IOException {
+        System.setOut(new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 64 * 1024), false));
 
-        if (parsed.args.length == 0) return; 
-        String[] commandParts = parsed.args;
+        long started = System.nanoTime();
+        long[] lines = {0};
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.flush();
+            if (!stats) return;
+            double seconds = (System.nanoTime() - started) / 1e9;
+            System.err.printf("%d lines in %.3f s (%.0f lines/s)%n", lines[0], seconds, lines[0] / seconds);
+            System.err.printf("pumps: %d started, peak %d active, %d active at exit, %.1f MB moved, %.1f flushes/MB%n",
+                    Pumps.pumpsStarted(), Pumps.peakActivePumps(), Pumps.activePumps(), Pumps.bytesMoved() / (1024.0 * 1024.0),
+                    Pumps.flushesPerMegabyte());
+        }));
 
-        PrintStream out = parsed.redirectStdout ? new PrintStream(new FileOutputStream(parsed.redirectFile, parsed.appendStdout)) : System.out;
-        PrintStream err = parsed.redirectStderr ? new PrintStream(new FileOutputStream(parsed.stderrFile, parsed.appendStderr)) : System.err;
+        int status = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines[0]++;
+            if (line.isBlank()) continue;
+            try { status = runOneCommandLine(line, reader::readLine, true); }
+            catch (Exception e) { System.err.println("Error: " + e.getMessage()); status = 1; }
+        }
+        System.exit(status);
+    }
 
-        try{
-            if (input.contains("|")) {
-                PipelineRunner.run(input, out, err, BUILTIN_RUNNER, PARSER);
-                return;
+    // here-document bodies are read from `lines`, after the line itself. with `stream`, the last one
+    // is read while its command runs instead of up front; that is left to the script and -c input,
+    // where nothing else waits on those lines, and only when no pipeline goes to the background.
+    private static int runOneCommandLine(String input, HereDocument.LineSource lines, boolean stream) throws Exception {
+        LineMetrics metrics = Metrics.begin(input);
+        HereDocument streamed = null;
+        try {
+            // a line that stops after '|', '&&', '||' or inside a substitution goes on on the next one
+            CommandList list = null;
+            while (list == null) {
+                long parseStart = System.nanoTime();
+                IllegalArgumentException error = null;
+                try { list = PARSER.parse(input); }
+                catch (IllegalArgumentException e) { error = e; }
+                finally { metrics.parsed(System.nanoTime() - parseStart); }
+                if (error == null) continue;
+
+                String more = PARSER.incomplete() ? lines.readLine() : null;
+                if (more == null) { System.err.println(error.getMessage()); return 2; }
+                input = input + "\n" + more;
+            }
+
+            List<HereDocument> docs = list.hereDocuments;
+            boolean streamLast = stream && list.pipelines.stream().noneMatch(p -> p.background);
+            for (int i = 0; i < docs.size(); i++) {
+                HereDocument doc = docs.get(i);
+                if (streamLast && i == docs.size() - 1) { doc.streamFrom(lines); streamed = doc; continue; }
+                doc.readBody(lines);
+                warnIfUnterminated(doc);
+            }
+
+            // '&&' and '||' look at the status of the last pipeline that ran
+            int status = 0;
+            for (Pipeline pipeline : list.pipelines) {
+                if (pipeline.runIf == Pipeline.RunIf.ON_SUCCESS && status != 0) continue;
+                if (pipeline.runIf == Pipeline.RunIf.ON_FAILURE && status == 0) continue;
+                status = runPipeline(pipeline);
+            }
+            return status;
+        } finally {
+            if (streamed != null) {
+                streamed.drain();
+                warnIfUnterminated(streamed);
+            }
+            Metrics.end(metrics);
+        }
+    }
+
+    private static void warnIfUnterminated(HereDocument doc) {
+        if (doc.unterminated()) {
+            System.err.println("warning: here-document delimited by end-of-file (wanted `" + doc.delimiter() + "')");
+        }
+    }
+
+    // runs on the job's own thread, so a background pipeline gets its own metrics record
+    private static int runJob(Pipeline pipeline, PipelineRunner.ProcessListener listener) {
+        LineMetrics metrics = Metrics.begin(pipeline.text);
+        try {
+            Pipeline untimed = withoutTime(pipeline);
+            if (untimed == null) return runJobStages(pipeline, listener);
+
+            long[] timing = Metrics.startTiming();
+            try { return untimed.commands.get(0).args.length == 0 ? 0 : runJobStages(untimed, listener); }
+            finally { System.out.flush(); Metrics.reportTiming(timing, System.err); }
+        } finally {
+            Metrics.end(metrics);
+        }
+    }
+
+    // substitutions are expanded here, on the job's thread
+    private static int runJobStages(Pipeline job, PipelineRunner.ProcessListener listener) {
+        Pipeline pipeline;
+        try { pipeline = CommandSubstitution.expand(job, BUILTIN_RUNNER); }
+        catch (IOException | InterruptedException e) { System.err.println(e.getMessage()); return 1; }
+
+        for (ParsedCommand pc : pipeline.commands) {
+            if (pc.args.length == 0) continue;
+            if (!Builtins.runsInProcess(pc.args) && ExternalCommand.findExecutableFile(pc.args[0]) == null) {
+                System.err.println(pc.args[0] + ": command not found");
+                return 127;
+            }
+        }
+        try { return PipelineRunner.run(pipeline.commands, System.out, System.err, BUILTIN_RUNNER, listener); }
+        catch (Exception e) { System.err.println("Error executing pipeline: " + e.getMessage()); return 1; }
+    }
+
+    // `time pipeline`: the same pipeline without the keyword, or null when it is not timed
+    private static Pipeline withoutTime(Pipeline pipeline) {
+        ParsedCommand first = pipeline.commands.get(0);
+        if (first.args.length == 0 || !first.args[0].equals(Builtins.TIME)) return null;
+
+        List<ParsedCommand> commands = new ArrayList<>(pipeline.commands);
+        commands.set(0, new ParsedCommand(Arrays.copyOfRange(first.args, 1, first.args.length), first.redirectStdout,
+                first.redirectStderr, first.appendStdout, first.appendStderr, first.redirectFile, first.stderrFile, first.stdin,
+                first.words == null ? null : Arrays.copyOfRange(first.words, 1, first.words.length)));
+        return new Pipeline(commands, pipeline.runIf, pipeline.background, pipeline.text);
+    }
+
+    private static int runPipeline(Pipeline pipeline) throws Exception {
+        Pipeline untimed = pipeline.background ? null : withoutTime(pipeline);
+        if (untimed != null) {
+            if (untimed.commands.get(0).args.length == 0 && untimed.commands.size() > 1) {
+                System.err.println("syntax error near unexpected token `|'");
+                return 2;
             }
-            execute(parsed,out,err);
+            // like bash, real/user/sys go to the shell's stderr whatever the pipeline redirects
+            long[] timing = Metrics.startTiming();
+            try { return runPipeline(untimed); }
+            finally { System.out.flush(); Metrics.reportTiming(timing, System.err); }
+        }
+
+        if (pipeline.background) {
+            JobTable.Job job = JobTable.start(pipeline.text, listener -> runJob(pipeline, listener));
+            System.err.println("[" + job.id() + "]" + (job.pid() < 0 ? "" : " " + job.pid()));
+            return 0;
+        }
+
+        // $(...) runs once the pipeline is due, inside `time`
+        Pipeline expanded;
+        try { expanded = CommandSubstitution.expand(pipeline, BUILTIN_RUNNER); }
+        catch (IOException e) { System.err.println(e.getMessage()); return 1; }
+
+        // pipeline stages carry their own redirects
+        if (expanded.commands.size() > 1) {
+            try { return PipelineRunner.run(expanded.commands, System.out, System.err, BUILTIN_RUNNER); }
+            catch (Exception e) { System.err.println("Error executing pipeline: " + e.getMessage()); return 1; }
+            finally { System.out.flush(); }
+        }
+
+        ParsedCommand parsed = expanded.commands.get(0);
+        if (parsed.args.length > 0 && !Builtins.runsInProcess(parsed.args)) {
+            return ExternalCommand.run(parsed, System.out, System.err);
+        }
+
+        PrintStream out = Redirects.stdoutFor(parsed, System.out);
+        PrintStream err = Redirects.stderrFor(parsed, System.err);
+
+        try{
+            // a command of only redirects just creates (or truncates) the files
+            if (parsed.args.length == 0) return 0;
+            if (parsed.stdin == null) return Builtins.run(parsed, out, err, HISTORY);
+            try (InputStream in = parsed.stdin.open()) { return Builtins.run(parsed, in, out, err, HISTORY); }
         } catch (Exception e){
             err.println("Error executing pipeline: " + e.getMessage());
+            return 1;
         } finally {
             out.flush();
             err.flush();
@@ -76,14 +303,4 @@ public class Main {
             if (err != System.err) {err.close();}
         }
     }
-
-    private static void execute(ParsedCommand parsed, PrintStream out, PrintStream err) throws Exception {
-        String[] commandParts = parsed.args;
-        String command = commandParts[0];
-        if (Builtins.isBuiltin(command)) {
-            Builtins.run(parsed, out, err, HISTORY);
-        } else {
-            ExternalCommand.run(commandParts, out, err);
-        }
-    }
 }
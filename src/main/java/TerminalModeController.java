@@ -1,17 +1,133 @@
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+
+// raw mode via tcgetattr/tcsetattr on stdin, called through the FFM API, instead of forking
+// `sh -c stty` at startup and again at exit. the termios layout is Linux's (60 bytes, c_lflag at 12,
+// c_cc at 17); on other systems, or when the calls fail, it falls back to stty.
 public class TerminalModeController {
 
+    private static final int STDIN = 0;
+    private static final int TCSANOW = 0;
+    private static final int TERMIOS_SIZE = 60;
+    private static final long C_LFLAG = 12;
+    private static final long C_CC = 17;
+    private static final int ICANON = 0x2;
+    private static final int ECHO = 0x8;
+    private static final int VTIME = 5;
+    private static final int VMIN = 6;
+
+    // the settings from before raw mode; null when stty did the job
+    private static MemorySegment saved;
+
     public static void setRawMode() {
-        String[] cmd = {"/bin/sh", "-c", "stty -echo -icanon min 1 < /dev/tty"};
+        if (System.getProperty("os.name").equals("Linux") && setRawModeNative()) return;
+        stty("stty -echo -icanon min 1 < /dev/tty");
+    }
+
+    // the terminal's width, from TIOCGWINSZ, else $COLUMNS, else 80. asked on every redraw, so a
+    // resize applies from the next key on
+    public static int columns() {
+        if (System.getProperty("os.name").equals("Linux")) {
+            try {
+                int columns = WindowSize.columns();
+                if (columns > 0) return columns;
+            } catch (LinkageError e) {
+                // no ioctl to call; fall through
+            }
+        }
         try {
-            Runtime.getRuntime().exec(cmd).waitFor();
-        } catch (Exception ignored) {}
+            return Math.max(1, Integer.parseInt(System.getenv("COLUMNS").trim()));
+        } catch (RuntimeException e) {
+            return 80;
+        }
     }
 
     public static void restoreTerminal() {
-        String[] cmd = {"/bin/sh", "-c", "stty sane < /dev/tty"};
+        if (saved != null && Termios.set(saved)) return;
+        stty("stty sane < /dev/tty");
+    }
+
+    private static boolean setRawModeNative() {
+        try {
+            MemorySegment original = Arena.global().allocate(TERMIOS_SIZE);
+            if (!Termios.get(original)) return false;
+
+            MemorySegment raw = Arena.global().allocate(TERMIOS_SIZE);
+            raw.copyFrom(original);
+            int lflag = raw.get(ValueLayout.JAVA_INT, C_LFLAG);
+            raw.set(ValueLayout.JAVA_INT, C_LFLAG, lflag & ~(ECHO | ICANON));
+            raw.set(ValueLayout.JAVA_BYTE, C_CC + VMIN, (byte) 1);
+            raw.set(ValueLayout.JAVA_BYTE, C_CC + VTIME, (byte) 0);
+            if (!Termios.set(raw)) return false;
+
+            saved = original;
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static void stty(String command) {
+        String[] cmd = {"/bin/sh", "-c", command};
         try {
             Runtime.getRuntime().exec(cmd).waitFor();
         } catch (Exception ignored) {}
     }
-    
+
+    // linked on first use, so the stty path never touches the native linker
+    private static final class Termios {
+        private static final MethodHandle TCGETATTR;
+        private static final MethodHandle TCSETATTR;
+
+        static {
+            Linker linker = Linker.nativeLinker();
+            TCGETATTR = linker.downcallHandle(linker.defaultLookup().find("tcgetattr").orElseThrow(),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+            TCSETATTR = linker.downcallHandle(linker.defaultLookup().find("tcsetattr").orElseThrow(),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.ADDRESS));
+        }
+
+        static boolean get(MemorySegment termios) {
+            try {
+                return (int) TCGETATTR.invokeExact(STDIN, termios) == 0;
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+
+        static boolean set(MemorySegment termios) {
+            try {
+                return (int) TCSETATTR.invokeExact(STDIN, TCSANOW, termios) == 0;
+            } catch (Throwable e) {
+                return false;
+            }
+        }
+    }
+
+    // ioctl(TIOCGWINSZ) fills a struct winsize: ws_row, ws_col, ws_xpixel, ws_ypixel, all unsigned short
+    private static final class WindowSize {
+        private static final long TIOCGWINSZ = 0x5413;
+        private static final MethodHandle IOCTL;
+        private static final MemorySegment WINSIZE = Arena.global().allocate(8);
+
+        static {
+            Linker linker = Linker.nativeLinker();
+            IOCTL = linker.downcallHandle(linker.defaultLookup().find("ioctl").orElseThrow(),
+                    FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS),
+                    Linker.Option.firstVariadicArg(2));
+        }
+
+        static synchronized int columns() {
+            try {
+                if ((int) IOCTL.invokeExact(STDIN, TIOCGWINSZ, WINSIZE) != 0) return 0;
+                return Short.toUnsignedInt(WINSIZE.get(ValueLayout.JAVA_SHORT, 2));
+            } catch (Throwable e) {
+                return 0;
+            }
+        }
+    }
 }
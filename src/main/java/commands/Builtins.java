@@ -1,10 +1,13 @@
 package commands;
 
 import java.io.File;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.util.Set;
+import java.util.TreeSet;
 
 import history.History;
+import jobs.JobTable;
 import parse.ParsedCommand;
 
 public class Builtins {
@@ -15,33 +18,72 @@ public class Builtins {
     public static final String PWD  = "pwd";
     public static final String CD   = "cd";
     public static final String HISTORY = "history";
+    public static final String HASH = "hash";
+    public static final String JOBS = "jobs";
+    public static final String WAIT = "wait";
+    public static final String FG   = "fg";
+    public static final String ENABLE = "enable";
+    public static final String TIME = "time"; // a keyword: Main times the rest of the pipeline
 
-    private static final Set<String> BUILTINS = Set.of(EXIT, ECHO, TYPE, PWD, CD, HISTORY);
+    private static final Set<String> BUILTINS = Set.of(EXIT, ECHO, TYPE, PWD, CD, HISTORY, HASH, JOBS, WAIT, FG, ENABLE);
 
+    // the in-process coreutils are not builtins: they stand in for the binary, which `type` still reports
     public static boolean isBuiltin(String commandName) {
         return BUILTINS.contains(commandName);
     }
 
-    public static void run(ParsedCommand cmd, PrintStream out, PrintStream err, History history) throws Exception {
+    // whether this invocation runs in the shell; a coreutil with options it does not implement forks
+    public static boolean runsInProcess(String[] args) {
+        return args.length > 0 && (BUILTINS.contains(args[0]) || Coreutils.handles(args));
+    }
+
+    // what a subshell may not run in the shell's own process: it would cd, exit or change the shell's tables
+    public static boolean changesShellState(String[] args) {
+        switch (args[0]) {
+            case CD, EXIT, JOBS, WAIT, FG: return true;
+            case HASH:    return args.length > 1;
+            case HISTORY: return args.length > 1 && args[1].startsWith("-");
+            case ENABLE:  return args.length > (args.length > 1 && args[1].equals("-n") ? 2 : 1);
+            default:      return false;
+        }
+    }
+
+    public static Set<String> names() {
+        return BUILTINS;
+    }
+
+    // returns the exit status: 0 on success, 1 when the builtin reported an error
+    public static int run(ParsedCommand cmd, PrintStream out, PrintStream err, History history) throws Exception {
+        return run(cmd, InputStream.nullInputStream(), out, err, history);
+    }
+
+    public static int run(ParsedCommand cmd, InputStream in, PrintStream out, PrintStream err, History history) throws Exception {
         String[] args = cmd.args;
         String name = args[0];
 
         switch (name) {
-            case EXIT:   exit(args, err, history); break;
-            case ECHO:   echo(args, out); break;
-            case TYPE:   type(args, out, err); break;
-            case PWD:    pwd(out); break;
-            case CD:     cd(args, err); break;
-            case HISTORY: historyCmd(args, out, history); break;
+            case EXIT:   return exit(args, err, history);
+            case ECHO:   return echo(args, out);
+            case TYPE:   return type(args, out, err);
+            case PWD:    return pwd(out);
+            case CD:     return cd(args, err);
+            case HISTORY: return historyCmd(args, out, history);
+            case HASH:   return hash(args, out, err);
+            case JOBS:   return JobTable.jobs(out);
+            case WAIT:   return JobTable.waitFor(args, err);
+            case FG:     return JobTable.fg(args, out, err);
+            case ENABLE: return enable(args, out, err);
             default:
+                if (Coreutils.handles(args)) return Coreutils.run(args, in, out, err);
                 err.println(name + ": command not found");
+                return 127;
         }
     }
 
-    public static void exit(String[] commandParts, PrintStream err, History history){ 
+    public static int exit(String[] commandParts, PrintStream err, History history){ 
         if (commandParts.length > 1) {
             err.println("exit: too many arguments");
-            return;
+            return 1;
         }
         String histFile = System.getenv("HISTFILE");
         if (histFile != null) {
@@ -49,10 +91,10 @@ public class Builtins {
             history.appendToFile(histFile);
         }
         System.exit(0);
-        
+        return 0;
     }
 
-    private static void echo(String[] commandParts, PrintStream out){
+    private static int echo(String[] commandParts, PrintStream out){
         StringBuilder message = new StringBuilder();
         for (int i = 1; i < commandParts.length; i++){
             message.append(commandParts[i]);
@@ -61,44 +103,46 @@ public class Builtins {
             }
         }
         out.println(message.toString());
+        return 0;
     }
 
-    private static void type(String[] commandParts, PrintStream out, PrintStream err){
+    private static int type(String[] commandParts, PrintStream out, PrintStream err){
         if (commandParts.length != 2) {
             err.println("type: invalid number of arguments");
-            return;
+            return 1;
         }
         
         String secondaryCommand = commandParts[1];
-        if(BUILTINS.contains(secondaryCommand)){
+        if(secondaryCommand.equals(TIME)){
+            out.println(secondaryCommand + " is a shell keyword");
+            return 0;
+        }
+        if(isBuiltin(secondaryCommand)){
             out.println(secondaryCommand + " is a shell builtin");
+            return 0;
         } 
         else {
-            String pathEnv = System.getenv("PATH");
-            String[] paths = pathEnv.split(System.getProperty("path.separator"));
-            for (String path : paths) {
-                File dir = new File(path);
-                File externalcommandFile = new File(dir, secondaryCommand);
-                if(externalcommandFile.exists() && externalcommandFile.canExecute()){
-                    out.println(secondaryCommand + " is " + externalcommandFile.getAbsolutePath());
-                    return;
-                }
+            File externalcommandFile = PathIndex.shared().resolve(secondaryCommand);
+            if(externalcommandFile != null){
+                out.println(secondaryCommand + " is " + externalcommandFile.getAbsolutePath());
+                return 0;
             }
             err.println(secondaryCommand + ": not found");
-            
+            return 1;
         }
     }
 
-    private static void pwd(PrintStream out){
+    private static int pwd(PrintStream out){
         String currentDir = System.getProperty("user.dir");
         out.println(currentDir);
+        return 0;
     }
 
-    private static void cd(String[] commandParts, PrintStream err){
+    private static int cd(String[] commandParts, PrintStream err){
         File target;
         if(commandParts.length != 2){
             err.println("cd: invalid number of arguments");
-            return;
+            return 1;
         }
 
         String path = commandParts[1];
@@ -119,25 +163,68 @@ public class Builtins {
             File CanonicalFile = target.getCanonicalFile();
             if(!CanonicalFile.exists() || !CanonicalFile.isDirectory()){
                 err.println("cd: no such file or directory: " + path);
-                return;
+                return 1;
             
             }
             System.setProperty("user.dir", CanonicalFile.getAbsolutePath());
+            return 0;
         } 
         catch (Exception e){
             // System.out.println("cd: error changing directory: " + e.getMessage()); 
             err.println("cd: error changing directory: " + e.getMessage());
-            return;
+            return 1;
         }
     }
 
-    private static void historyCmd(String[] args, PrintStream out, History history) {
-        if (args.length == 1) { history.printAll(out); return; }
-        if (args.length == 2) { history.printLastN(out, Integer.parseInt(args[1])); return; }
+    private static int hash(String[] args, PrintStream out, PrintStream err) {
+        if (args.length == 1) { PathIndex.shared().print(out); return 0; }
+        if (args.length == 2 && args[1].equals("-r")) { PathIndex.shared().clear(); return 0; }
+
+        int status = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (PathIndex.shared().remember(args[i])) continue;
+            err.println("hash: " + args[i] + ": not found");
+            status = 1;
+        }
+        return status;
+    }
+
+    // `enable` lists the enabled builtins, `enable -n` the disabled ones; `enable [-n] name...`
+    // switches the in-process coreutils on or off (off runs the external binary again)
+    private static int enable(String[] args, PrintStream out, PrintStream err) {
+        boolean disable = args.length > 1 && args[1].equals("-n");
+        int first = disable ? 2 : 1;
+        if (first == args.length) {
+            if (!disable) new TreeSet<>(BUILTINS).forEach(name -> out.println("enable " + name));
+            for (String name : Coreutils.names()) {
+                if (Coreutils.isEnabled(name) != disable) out.println("enable " + (disable ? "-n " : "") + name);
+            }
+            return 0;
+        }
+
+        int status = 0;
+        for (int i = first; i < args.length; i++) {
+            if (Coreutils.setEnabled(args[i], !disable) || (!disable && BUILTINS.contains(args[i]))) continue;
+            err.println("enable: " + args[i] + (BUILTINS.contains(args[i]) ? ": cannot be disabled" : ": not a shell builtin"));
+            status = 1;
+        }
+        return status;
+    }
+
+    private static int historyCmd(String[] args, PrintStream out, History history) {
+        if (args.length == 1) { history.printAll(out); return 0; }
+        if (args.length == 2 && args[1].equals("-n")) {
+            String histFile = System.getenv("HISTFILE");
+            if (histFile != null) history.readNewFromFile(histFile);
+            return 0;
+        }
+        if (args.length == 2) { history.printLastN(out, Integer.parseInt(args[1])); return 0; }
 
-        if (args.length == 3 && args[1].equals("-r")) { history.readFromFile(args[2]); return; }
-        if (args.length == 3 && args[1].equals("-w")) { history.writeToFile(args[2]); return; }
-        if (args.length == 3 && args[1].equals("-a")) { history.appendToFile(args[2]); return; }
+        if (args.length == 3 && args[1].equals("-r")) { history.readFromFile(args[2]); return 0; }
+        if (args.length == 3 && args[1].equals("-w")) { history.writeToFile(args[2]); return 0; }
+        if (args.length == 3 && args[1].equals("-a")) { history.appendToFile(args[2]); return 0; }
+        if (args.length == 3 && args[1].equals("-n")) { history.readNewFromFile(args[2]); return 0; }
+        return 0;
     }
     
 }
@@ -0,0 +1,180 @@
+package commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import parse.CommandList;
+import parse.ParsedCommand;
+import parse.Parser;
+import parse.Pipeline;
+import parse.Word;
+import pipes.PipelineRunner;
+import pipes.Pumps;
+import pipes.Redirects;
+
+// $(...) and `...`. a pipeline's substitutions are expanded just before it runs, so they see the
+// effects of the pipelines before it on the line. each one runs as a small command list of its own:
+// a lone builtin or in-process coreutil in the shell, anything else through PipelineRunner, with
+// stdout captured into a buffer of at most MAX_OUTPUT bytes and its trailing newlines removed.
+// the substitutions of one pipeline do not depend on each other and run concurrently.
+//
+// a subshell must not cd, exit or touch the job, hash or history tables of the shell itself; a
+// substitution that uses those builtins is handed whole to `sh -c` instead.
+public final class CommandSubstitution {
+
+    private static final int MAX_OUTPUT = Math.max(4096, Integer.getInteger("shell.substitution.maxBytes", 16 * 1024 * 1024));
+
+    private CommandSubstitution() {}
+
+    // the same pipeline when nothing in it is substituted
+    public static Pipeline expand(Pipeline pipeline, PipelineRunner.BullitinRunner runner) throws IOException, InterruptedException {
+        List<String> commands = new ArrayList<>();
+        for (ParsedCommand pc : pipeline.commands) {
+            if (pc.words == null) continue;
+            for (Word word : pc.words) {
+                if (word != null) commands.addAll(word.commands());
+            }
+        }
+        if (commands.isEmpty()) return pipeline;
+
+        List<String> outputs = new ArrayList<>(commands.size());
+        if (commands.size() == 1) {
+            outputs.add(run(commands.get(0), runner));
+        } else {
+            List<Future<String>> running = new ArrayList<>(commands.size());
+            for (String command : commands) running.add(Pumps.submit(() -> run(command, runner)));
+            for (Future<String> output : running) outputs.add(outputOf(output));
+        }
+
+        List<ParsedCommand> expanded = new ArrayList<>(pipeline.commands.size());
+        int next = 0;
+        for (ParsedCommand pc : pipeline.commands) {
+            if (pc.words == null) { expanded.add(pc); continue; }
+            List<String> args = new ArrayList<>(pc.args.length);
+            for (int i = 0; i < pc.args.length; i++) {
+                Word word = pc.words[i];
+                if (word == null) { args.add(pc.args[i]); continue; }
+                int used = word.commands().size();
+                args.addAll(word.fields(outputs.subList(next, next + used)));
+                next += used;
+            }
+            expanded.add(new ParsedCommand(args.toArray(new String[0]), pc.redirectStdout, pc.redirectStderr,
+                    pc.appendStdout, pc.appendStderr, pc.redirectFile, pc.stderrFile, pc.stdin, null));
+        }
+        return new Pipeline(expanded, pipeline.runIf, pipeline.background, pipeline.text);
+    }
+
+    private static String outputOf(Future<String> output) throws IOException, InterruptedException {
+        try {
+            return output.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // the command's stdout, without trailing newlines; its stderr is the shell's
+    private static String run(String command, PipelineRunner.BullitinRunner runner) throws IOException, InterruptedException {
+        Output captured = new Output();
+        PrintStream out = new PrintStream(captured);
+        try {
+            runList(command, out, runner);
+        } finally {
+            out.flush();
+        }
+        if (captured.overflowed) throw new IOException("command substitution: output exceeds " + MAX_OUTPUT + " bytes");
+        return captured.text();
+    }
+
+    private static void runList(String command, PrintStream out, PipelineRunner.BullitinRunner runner) throws IOException, InterruptedException {
+        CommandList list;
+        try { list = new Parser().parse(command); }
+        catch (IllegalArgumentException e) { System.err.println(e.getMessage()); return; }
+
+        for (Pipeline pipeline : list.pipelines) {
+            for (ParsedCommand pc : pipeline.commands) {
+                if (pc.args.length > 0 && Builtins.changesShellState(pc.args)) {
+                    runPipeline(List.of(new ParsedCommand(new String[] {"sh", "-c", command}, false, false, false, false, null, null)), out, runner);
+                    return;
+                }
+            }
+        }
+
+        // '&' has nothing to return to here, so every pipeline runs in the foreground
+        int status = 0;
+        for (Pipeline pipeline : list.pipelines) {
+            if (pipeline.runIf == Pipeline.RunIf.ON_SUCCESS && status != 0) continue;
+            if (pipeline.runIf == Pipeline.RunIf.ON_FAILURE && status == 0) continue;
+            status = runPipeline(expand(pipeline, runner).commands, out, runner);
+        }
+    }
+
+    private static int runPipeline(List<ParsedCommand> commands, PrintStream out, PipelineRunner.BullitinRunner runner) throws IOException, InterruptedException {
+        for (ParsedCommand pc : commands) {
+            if (pc.args.length > 0 && !runner.runsInProcess(pc) && ExternalCommand.findExecutableFile(pc.args[0]) == null) {
+                System.err.println(pc.args[0] + ": command not found");
+                return 127;
+            }
+        }
+
+        ParsedCommand first = commands.get(0);
+        if (commands.size() > 1 || (first.args.length > 0 && !runner.runsInProcess(first))) {
+            try { return PipelineRunner.run(commands, out, System.err, runner); }
+            catch (Exception e) { System.err.println("Error executing pipeline: " + e.getMessage()); return 1; }
+        }
+
+        // a lone builtin writes straight into the buffer, on this thread
+        PrintStream stageOut = Redirects.stdoutFor(first, out);
+        PrintStream stageErr = Redirects.stderrFor(first, System.err);
+        try (InputStream in = first.stdin == null ? InputStream.nullInputStream() : first.stdin.open()) {
+            return first.args.length == 0 ? 0 : runner.run(first, in, stageOut, stageErr);
+        } catch (IOException e) {
+            stageErr.println("Error executing pipeline: " + e.getMessage());
+            return 1;
+        } finally {
+            stageOut.flush();
+            stageErr.flush();
+            if (stageOut != out) stageOut.close();
+            if (stageErr != System.err) stageErr.close();
+        }
+    }
+
+    // fails every write from the one that would go past MAX_OUTPUT on. the PrintStream around it records
+    // the error: an in-process stage stops on checkError(), and the pump reading an external stage stops
+    // and closes the process's stdout, so the process dies of SIGPIPE instead of running on
+    private static final class Output extends OutputStream {
+        private byte[] bytes = new byte[256];
+        private int size;
+        private boolean overflowed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > MAX_OUTPUT - size) {
+                overflowed = true;
+                throw new IOException("command substitution output too large");
+            }
+            if (size + len > bytes.length) bytes = Arrays.copyOf(bytes, Math.min(MAX_OUTPUT, Math.max(size + len, bytes.length * 2)));
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        String text() {
+            int end = size;
+            while (end > 0 && bytes[end - 1] == '\n') end--;
+            return new String(bytes, 0, end, StandardCharsets.UTF_8);
+        }
+    }
+}
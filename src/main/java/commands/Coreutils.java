@@ -0,0 +1,642 @@
+package commands;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import pipes.FileSink;
+import pipes.Redirects;
+
+// cat, head, tail, wc, fixed-string grep and tee, run inside the shell instead of forking coreutils.
+// they stream in 64 KB chunks and read files through FileChannel: `cat file > out` is a kernel-side
+// transferTo, `tail` seeks back from the end, `wc -c` just asks for the size. each one runs in
+// process only with the options implemented here; anything else (`tail -f`, a grep regex, ...)
+// still runs the external binary. `enable -n cat` switches cat back to the binary, `enable cat`
+// returns it, and SHELL_INPROCESS_COREUTILS=0 starts the shell with all of them switched off.
+public final class Coreutils {
+
+    public static final String CAT  = "cat";
+    public static final String HEAD = "head";
+    public static final String TAIL = "tail";
+    public static final String WC   = "wc";
+    public static final String GREP = "grep";
+    public static final String TEE  = "tee";
+
+    private static final List<String> NAMES = List.of(CAT, HEAD, TAIL, WC, GREP, TEE);
+    private static final Set<String> ENABLED = ConcurrentHashMap.newKeySet();
+
+    static {
+        String setting = System.getenv("SHELL_INPROCESS_COREUTILS");
+        if (setting == null || !(setting.equals("0") || setting.equalsIgnoreCase("off"))) ENABLED.addAll(NAMES);
+    }
+
+    private static final int CHUNK = 64 * 1024;
+    private static final int BROKEN_PIPE = 141; // what the binary's SIGPIPE death looks like
+    private static final String BRE_SPECIALS = ".[]*^$\\";
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+
+    // what one invocation asked for; null from parse() when it needs the external binary
+    private static final class Options {
+        long count = 10;          // head/tail
+        boolean bytes;            // head/tail -c
+        boolean lines, words, chars;  // wc
+        boolean ignoreCase, invert, countOnly, numbered, quiet, fixed;  // grep
+        byte[] pattern;
+        boolean append;           // tee -a
+        final List<String> files = new ArrayList<>();
+    }
+
+    private Coreutils() {}
+
+    public static List<String> names() {
+        return NAMES;
+    }
+
+    public static boolean isEnabled(String name) {
+        return ENABLED.contains(name);
+    }
+
+    // false for names that are not ours
+    public static boolean setEnabled(String name, boolean enabled) {
+        if (!NAMES.contains(name)) return false;
+        if (enabled) ENABLED.add(name); else ENABLED.remove(name);
+        return true;
+    }
+
+    // whether this invocation runs in process: the command is enabled and we implement every option
+    public static boolean handles(String[] args) {
+        return args.length > 0 && ENABLED.contains(args[0]) && parse(args) != null;
+    }
+
+    public static int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        Options options = parse(args);
+        byte[] buffer = new byte[CHUNK];
+        return switch (args[0]) {
+            case CAT  -> cat(options, in, out, err, buffer);
+            case HEAD -> head(options, in, out, err, buffer);
+            case TAIL -> tail(options, in, out, err, buffer);
+            case WC   -> wc(options, in, out, err, buffer);
+            case TEE  -> tee(options, in, out, err, buffer);
+            default   -> grep(options, in, out, err, buffer);
+        };
+    }
+
+    private static Options parse(String[] args) {
+        Options options = new Options();
+        String name = args[0];
+        int i = 1;
+        boolean endOfOptions = false;
+        for (; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) { i++; endOfOptions = true; break; }
+            if (!arg.startsWith("-") || arg.equals("-")) break;
+
+            switch (name) {
+                case HEAD, TAIL -> {
+                    String value;
+                    if (arg.matches("-[0-9]+")) value = arg.substring(1);
+                    else if (arg.equals("-n") || arg.equals("-c")) value = i + 1 < args.length ? args[++i] : null;
+                    else if (arg.startsWith("-n") || arg.startsWith("-c")) value = arg.substring(2);
+                    else return null;
+                    // `head -n -N` and `tail -n +N` count from the other end; leave those to the binary
+                    if (value == null || !value.matches("[0-9]{1,18}")) return null;
+                    options.count = Long.parseLong(value);
+                    options.bytes = arg.startsWith("-c");
+                }
+                case WC -> {
+                    for (int c = 1; c < arg.length(); c++) {
+                        switch (arg.charAt(c)) {
+                            case 'l' -> options.lines = true;
+                            case 'w' -> options.words = true;
+                            case 'c' -> options.chars = true;
+                            default -> { return null; }
+                        }
+                    }
+                }
+                case GREP -> {
+                    for (int c = 1; c < arg.length(); c++) {
+                        switch (arg.charAt(c)) {
+                            case 'i' -> options.ignoreCase = true;
+                            case 'v' -> options.invert = true;
+                            case 'c' -> options.countOnly = true;
+                            case 'n' -> options.numbered = true;
+                            case 'q' -> options.quiet = true;
+                            case 'F' -> options.fixed = true;
+                            default -> { return null; }
+                        }
+                    }
+                }
+                case TEE -> {
+                    if (!arg.equals("-a")) return null;
+                    options.append = true;
+                }
+                default -> { return null; } // cat takes no options here
+            }
+        }
+
+        if (name.equals(GREP)) {
+            if (i == args.length) return null;
+            String pattern = args[i++];
+            for (int c = 0; c < pattern.length() && !options.fixed; c++) {
+                if (BRE_SPECIALS.indexOf(pattern.charAt(c)) >= 0) return null;
+            }
+            // case folding is ASCII only; grep -i on other text keeps the binary's locale rules
+            if (options.ignoreCase && !pattern.chars().allMatch(c -> c < 0x80)) return null;
+            if (pattern.indexOf('\n') >= 0) return null;
+            options.pattern = pattern.getBytes(StandardCharsets.UTF_8);
+        }
+        if (name.equals(WC) && !options.lines && !options.words && !options.chars) {
+            options.lines = options.words = options.chars = true;
+        }
+        for (; i < args.length; i++) {
+            // GNU tools also take options after the operands; leave that to them
+            if (!endOfOptions && args[i].startsWith("-") && args[i].length() > 1) return null;
+            options.files.add(args[i]);
+        }
+        return options;
+    }
+
+    private static int cat(Options options, InputStream in, PrintStream out, PrintStream err, byte[] buffer) {
+        int status = 0;
+        for (String file : inputs(options)) {
+            if (file.equals("-")) {
+                if (!copy(in, out, buffer)) return BROKEN_PIPE;
+                continue;
+            }
+            try (FileChannel channel = open(file)) {
+                long size = channel.size();
+                // files that report no size (/proc, devices) are streamed like a pipe
+                if (out instanceof FileSink sink && size > 0) {
+                    transfer(channel, 0, size, sink.channel());
+                } else if (!copy(Channels.newInputStream(channel), out, buffer)) {
+                    return BROKEN_PIPE;
+                }
+            } catch (IOException e) {
+                err.println(CAT + ": " + file + ": " + reason(e));
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    private static int head(Options options, InputStream in, PrintStream out, PrintStream err, byte[] buffer) {
+        int status = 0;
+        List<String> inputs = inputs(options);
+        boolean first = true;
+        for (String file : inputs) {
+            try (InputStream source = file.equals("-") ? null : Channels.newInputStream(open(file))) {
+                if (inputs.size() > 1) out.print(header(file, first));
+                first = false;
+                if (!head(source == null ? in : source, out, options.count, options.bytes, buffer)) return BROKEN_PIPE;
+            } catch (IOException e) {
+                err.println(HEAD + ": cannot open '" + file + "' for reading: " + reason(e));
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    // writes the first `count` lines (or bytes) and stops reading; false when the reader went away
+    private static boolean head(InputStream in, PrintStream out, long count, boolean bytes, byte[] buffer) throws IOException {
+        long left = count;
+        int n;
+        while (left > 0 && (n = in.read(buffer)) != -1) {
+            int upTo = n;
+            if (bytes) {
+                if (n > left) upTo = (int) left;
+                left -= upTo;
+            } else {
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] == '\n' && --left == 0) { upTo = i + 1; break; }
+                }
+            }
+            out.write(buffer, 0, upTo);
+            if (out.checkError()) return false;
+        }
+        return true;
+    }
+
+    private static int tail(Options options, InputStream in, PrintStream out, PrintStream err, byte[] buffer) {
+        int status = 0;
+        List<String> inputs = inputs(options);
+        boolean first = true;
+        for (String file : inputs) {
+            try (FileChannel channel = file.equals("-") ? null : open(file)) {
+                if (inputs.size() > 1) out.print(header(file, first));
+                first = false;
+                if (channel == null) {
+                    if (!tailStream(in, out, options.count, options.bytes, buffer)) return BROKEN_PIPE;
+                    continue;
+                }
+                long size = channel.size();
+                if (size == 0) {
+                    if (!tailStream(Channels.newInputStream(channel), out, options.count, options.bytes, buffer)) return BROKEN_PIPE;
+                    continue;
+                }
+                long start = options.bytes ? Math.max(0, size - options.count) : lastLines(channel, size, options.count, buffer);
+                if (out instanceof FileSink sink) {
+                    transfer(channel, start, size - start, sink.channel());
+                } else if (!copy(Channels.newInputStream(channel.position(start)), out, buffer)) {
+                    return BROKEN_PIPE;
+                }
+            } catch (IOException e) {
+                err.println(TAIL + ": cannot open '" + file + "' for reading: " + reason(e));
+                status = 1;
+            }
+        }
+        return status;
+    }
+
+    // offset of the first of the last `count` lines, read backwards from the end a chunk at a time
+    private static long lastLines(FileChannel channel, long size, long count, byte[] buffer) throws IOException {
+        if (count == 0) return size;
+        ByteBuffer chunk = ByteBuffer.wrap(buffer);
+        long newlines = 0;
+        for (long position = size; position > 0; ) {
+            int n = (int) Math.min(buffer.length, position);
+            position -= n;
+            chunk.clear().limit(n);
+            while (chunk.hasRemaining()) {
+                if (channel.read(chunk, position + chunk.position()) < 0) throw new IOException("file shrank while reading");
+            }
+            for (int i = n - 1; i >= 0; i--) {
+                // the newline that ends the file does not start another line
+                if (buffer[i] == '\n' && position + i != size - 1 && ++newlines == count) return position + i + 1;
+            }
+        }
+        return 0;
+    }
+
+    // keeps only as many chunks as the last `count` lines (or bytes) can span
+    private static boolean tailStream(InputStream in, PrintStream out, long count, boolean bytes, byte[] buffer) throws IOException {
+        ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        ArrayDeque<Integer> newlinesPerChunk = new ArrayDeque<>();
+        long kept = 0, newlines = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            if (n == 0) continue;
+            byte[] chunk = Arrays.copyOf(buffer, n);
+            int lines = newlines(chunk, n);
+            chunks.add(chunk);
+            newlinesPerChunk.add(lines);
+            kept += n;
+            newlines += lines;
+
+            while (chunks.size() > 1) {
+                byte[] first = chunks.peek();
+                int firstLines = newlinesPerChunk.peek();
+                boolean droppable = bytes ? kept - first.length >= count : newlines - firstLines > count;
+                if (!droppable) break;
+                chunks.poll();
+                newlinesPerChunk.poll();
+                kept -= first.length;
+                newlines -= firstLines;
+            }
+        }
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream((int) Math.min(kept, Integer.MAX_VALUE - 8));
+        for (byte[] chunk : chunks) joined.write(chunk);
+        byte[] data = joined.toByteArray();
+
+        int start = 0;
+        if (bytes) {
+            start = (int) Math.max(0, data.length - count);
+        } else if (count == 0) {
+            start = data.length;
+        } else {
+            long seen = 0;
+            for (int i = data.length - 1; i >= 0; i--) {
+                if (data[i] == '\n' && i != data.length - 1 && ++seen == count) { start = i + 1; break; }
+            }
+        }
+        out.write(data, start, data.length - start);
+        return !out.checkError();
+    }
+
+    // every chunk is copied once into a direct buffer that all the files are written from, so the
+    // fan-out costs no per-file copy into native memory; a FileSink stdout is one more channel.
+    // stdout is flushed per chunk, so `tail -f | tee log` stays live.
+    private static int tee(Options options, InputStream in, PrintStream out, PrintStream err, byte[] buffer) {
+        int status = 0;
+        List<FileChannel> files = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (String file : options.files) {
+            try {
+                Path path = Redirects.resolve(file).toPath();
+                files.add(options.append
+                    ? FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                    : FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+                names.add(file);
+            } catch (IOException e) {
+                err.println(TEE + ": " + file + ": " + reason(e));
+                status = 1;
+            }
+        }
+        FileChannel stdout = out instanceof FileSink sink ? sink.channel() : null;
+        if (stdout != null) {
+            files.add(stdout);
+            names.add("standard output");
+        }
+
+        ByteBuffer shared = ByteBuffer.allocateDirect(buffer.length);
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                shared.clear();
+                shared.put(buffer, 0, n).flip();
+                for (int f = 0; f < files.size(); f++) {
+                    FileChannel channel = files.get(f);
+                    if (channel == null) continue;
+                    try {
+                        ByteBuffer view = shared.duplicate();
+                        while (view.hasRemaining()) channel.write(view);
+                    } catch (IOException e) {
+                        err.println(TEE + ": " + names.get(f) + ": " + reason(e));
+                        files.set(f, null);
+                        status = 1;
+                    }
+                }
+                if (stdout == null) {
+                    out.write(buffer, 0, n);
+                    if (out.checkError()) return BROKEN_PIPE;
+                }
+            }
+        } catch (IOException e) {
+            err.println(TEE + ": " + reason(e));
+            status = 1;
+        } finally {
+            for (FileChannel channel : files) {
+                if (channel == null || channel == stdout) continue;
+                try { channel.close(); } catch (IOException ignored) {}
+            }
+        }
+        return status;
+    }
+
+    private static int wc(Options options, InputStream in, PrintStream out, PrintStream err, byte[] buffer) {
+        List<String> inputs = inputs(options);
+        int columns = (options.lines ? 1 : 0) + (options.words ? 1 : 0) + (options.chars ? 1 : 0);
+
+        // like coreutils: one number alone is unpadded, otherwise the width fits the total size of the
+        // regular files, and at least 7 when anything is read from a pipe
+        int width = 1;
+        if (inputs.size() > 1 || columns > 1) {
+            long regularTotal = 0;
+            boolean streamed = false;
+            for (String file : inputs) {
+                Path path = file.equals("-") ? null : Redirects.resolve(file).toPath();
+                if (path != null && Files.isRegularFile(path)) {
+                    try { regularTotal += Files.size(path); } catch (IOException ignored) {}
+                } else if (path == null) {
+                    streamed = true;
+                }
+            }
+            width = Math.max(Long.toString(regularTotal).length(), streamed ? 7 : 1);
+        }
+
+        int status = 0;
+        long[] total = new long[3];
+        for (String file : inputs) {
+            long[] counts = new long[3];
+            try {
+                if (file.equals("-")) {
+                    count(in, counts, options, buffer);
+                } else {
+                    try (FileChannel channel = open(file)) {
+                        long size = channel.size();
+                        if (!options.lines && !options.words && size > 0) counts[2] = size;
+                        else count(Channels.newInputStream(channel), counts, options, buffer);
+                    }
+                }
+            } catch (IOException e) {
+                err.println(WC + ": " + file + ": " + reason(e));
+                status = 1;
+                continue;
+            }
+            for (int c = 0; c < 3; c++) total[c] += counts[c];
+            printCounts(out, counts, options, width, options.files.isEmpty() ? null : file);
+        }
+        if (inputs.size() > 1) printCounts(out, total, options, width, "total");
+        return status;
+    }
+
+    private static void count(InputStream in, long[] counts, Options options, byte[] buffer) throws IOException {
+        boolean inWord = false;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            counts[2] += n;
+            if (!options.words) {
+                if (options.lines) counts[0] += newlines(buffer, n);
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                byte b = buffer[i];
+                if (b == '\n') counts[0]++;
+                boolean space = b == ' ' || (b >= '\t' && b <= '\r');
+                if (!space && !inWord) counts[1]++;
+                inWord = !space;
+            }
+        }
+    }
+
+    // eight bytes at a time: the exact zero-byte count of (word ^ "\n\n\n\n\n\n\n\n"), no borrows
+    private static int newlines(byte[] buffer, int n) {
+        int lines = 0;
+        int i = 0;
+        for (; i + Long.BYTES <= n; i += Long.BYTES) {
+            long x = (long) LONGS.get(buffer, i) ^ NEWLINES;
+            long t = (x & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL;
+            lines += Long.bitCount(~(t | x | 0x7F7F7F7F7F7F7F7FL));
+        }
+        for (; i < n; i++) if (buffer[i] == '\n') lines++;
+        return lines;
+    }
+
+    private static void printCounts(PrintStream out, long[] counts, Options options, int width, String name) {
+        StringBuilder line = new StringBuilder();
+        boolean[] shown = {options.lines, options.words, options.chars};
+        for (int c = 0; c < 3; c++) {
+            if (!shown[c]) continue;
+            String number = Long.toString(counts[c]);
+            if (!line.isEmpty()) line.append(' ');
+            line.append(" ".repeat(Math.max(0, width - number.length()))).append(number);
+        }
+        if (name != null) line.append(' ').append(name);
+        out.println(line);
+    }
+
+    private static int grep(Options options, InputStream in, PrintStream out, PrintStream err, byte[] buffer) {
+        List<String> inputs = inputs(options);
+        boolean named = inputs.size() > 1;
+        boolean selected = false;
+        int status = 0;
+        byte[] pattern = options.pattern;
+        if (options.ignoreCase) pattern = lower(pattern.clone());
+
+        for (String file : inputs) {
+            long matches = 0;
+            try (InputStream source = file.equals("-") ? null : Channels.newInputStream(open(file))) {
+                Lines lines = new Lines(source == null ? in : source, buffer);
+                long number = 0;
+                while (lines.next()) {
+                    number++;
+                    if (contains(lines.bytes, lines.start, lines.end, pattern, options.ignoreCase) == options.invert) continue;
+                    matches++;
+                    if (options.quiet) return 0;
+                    if (options.countOnly) continue;
+                    if (named) out.print(title(file) + ":");
+                    if (options.numbered) out.print(number + ":");
+                    out.write(lines.bytes, lines.start, lines.end - lines.start);
+                    out.write('\n');
+                    if (lines.refilled && out.checkError()) return BROKEN_PIPE;
+                }
+            } catch (IOException e) {
+                err.println(GREP + ": " + file + ": " + reason(e));
+                status = 2;
+                continue;
+            }
+            if (options.countOnly) out.println((named ? title(file) + ":" : "") + matches);
+            selected |= matches > 0;
+        }
+        if (out.checkError()) return BROKEN_PIPE;
+        // -q returned 0 at the first match; without one, an unreadable file makes it 2 as well
+        return status != 0 ? status : selected ? 0 : 1;
+    }
+
+    // the lines of a stream, each one a range of a buffer that grows to fit the longest line
+    private static final class Lines {
+        private final InputStream in;
+        byte[] bytes;
+        int start, end;           // the current line, without its newline
+        boolean refilled;         // whether next() had to read
+        private int next, limit;  // the unread part of the buffer
+        private boolean eof;
+
+        Lines(InputStream in, byte[] buffer) {
+            this.in = in;
+            this.bytes = buffer;
+        }
+
+        boolean next() throws IOException {
+            refilled = false;
+            int scanFrom = next;
+            while (true) {
+                for (int i = scanFrom; i < limit; i++) {
+                    if (bytes[i] != '\n') continue;
+                    start = next;
+                    end = i;
+                    next = i + 1;
+                    return true;
+                }
+                if (eof) {
+                    if (next == limit) return false;
+                    // a last line without a newline
+                    start = next;
+                    end = limit;
+                    next = limit;
+                    return true;
+                }
+                // move the partial line to the front, growing the buffer if it already fills it
+                int partial = limit - next;
+                if (partial == bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                else System.arraycopy(bytes, next, bytes, 0, partial);
+                next = 0;
+                limit = partial;
+                scanFrom = partial;
+                int n = in.read(bytes, limit, bytes.length - limit);
+                refilled = true;
+                if (n < 0) eof = true; else limit += n;
+            }
+        }
+    }
+
+    private static boolean contains(byte[] line, int from, int to, byte[] pattern, boolean ignoreCase) {
+        if (pattern.length == 0) return true;
+        byte first = pattern[0];
+        for (int i = from, last = to - pattern.length; i <= last; i++) {
+            if ((ignoreCase ? lower(line[i]) : line[i]) != first) continue;
+            int k = 1;
+            while (k < pattern.length && (ignoreCase ? lower(line[i + k]) : line[i + k]) == pattern[k]) k++;
+            if (k == pattern.length) return true;
+        }
+        return false;
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static byte[] lower(byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) bytes[i] = lower(bytes[i]);
+        return bytes;
+    }
+
+    // copies to the end of the input; false when the reader went away
+    private static boolean copy(InputStream in, PrintStream out, byte[] buffer) {
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                if (out.checkError()) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return !out.checkError();
+        }
+    }
+
+    private static void transfer(FileChannel from, long position, long count, FileChannel to) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long moved = from.transferTo(position, end - position, to);
+            if (moved <= 0) break;
+            position += moved;
+        }
+    }
+
+    private static FileChannel open(String file) throws IOException {
+        Path path = Redirects.resolve(file).toPath();
+        if (Files.isDirectory(path)) throw new IOException("Is a directory");
+        return FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    private static List<String> inputs(Options options) {
+        return options.files.isEmpty() ? List.of("-") : options.files;
+    }
+
+    private static String title(String file) {
+        return file.equals("-") ? "(standard input)" : file;
+    }
+
+    // head and tail name each of several inputs
+    // only files that opened get one, as with GNU, and a blank line goes between them
+    private static String header(String file, boolean first) {
+        return (first ? "" : "\n") + "==> " + (file.equals("-") ? "standard input" : file) + " <==\n";
+    }
+
+    private static String reason(IOException e) {
+        if (e instanceof NoSuchFileException) return "No such file or directory";
+        if (e instanceof AccessDeniedException) return "Permission denied";
+        return e.getMessage();
+    }
+}
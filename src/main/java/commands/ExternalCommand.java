@@ -1,48 +1,83 @@
 package commands;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import metrics.LineMetrics;
+import metrics.Events;
+import metrics.Metrics;
+import metrics.PipelineStageEvent;
+import parse.ParsedCommand;
+import pipes.Pumps;
+import pipes.Redirects;
 
 public class ExternalCommand {
 
-    public static void run(String[] commandParts, PrintStream out, PrintStream err){
-        String executable = commandParts[0];
+    // file redirects and the shell's own terminal streams are handed to the child directly;
+    // anything else is drained on pumps, stdout and stderr concurrently so neither pipe can fill up.
+    // a here-document is fed to the child's stdin by one more pump; otherwise stdin is closed at once.
+    // returns the exit status, 127 when the command is not found
+    public static int run(ParsedCommand cmd, PrintStream out, PrintStream err){
+        String executable = cmd.args[0];
 
         File commandFile = findExecutableFile(executable);
         if(commandFile == null){
-            err.println(executable + ": command not found");
-            return;
+            try {
+                PrintStream target = Redirects.stderrFor(cmd, err);
+                target.println(executable + ": command not found");
+                if (target != err) target.close();
+            } catch (IOException e) {
+                err.println(e.getMessage());
+            }
+            return 127;
         } 
         else {
             try {
-                Process process = Runtime.getRuntime().exec(commandParts);
-                process.getInputStream().transferTo(out);
-                process.getErrorStream().transferTo(err);
-                process.waitFor();
-                return;
+                ProcessBuilder pb = new ProcessBuilder(cmd.args);
+                pb.directory(new File(System.getProperty("user.dir")));
+                pb.redirectOutput(Redirects.stdoutTarget(cmd, out));
+                pb.redirectError(Redirects.stderrTarget(cmd, err));
+
+                out.flush();
+                err.flush();
+                LineMetrics metrics = Metrics.current();
+                metrics.spawning();
+                long spawnStart = System.nanoTime();
+                PipelineStageEvent event = Events.stage(1, cmd.args, false);
+                Process process = pb.start();
+                metrics.spawned(1, System.nanoTime() - spawnStart);
+                Events.exitOf(event, process);
+
+                List<Future<?>> pumps = new ArrayList<>();
+                if (cmd.stdin != null) pumps.add(Pumps.pump(cmd.stdin.open(), process.getOutputStream(), true, "1<"));
+                else process.getOutputStream().close();
+                if (pb.redirectOutput() == Redirect.PIPE) pumps.add(Pumps.pump(process.getInputStream(), out, false, "1>"));
+                if (pb.redirectError() == Redirect.PIPE) pumps.add(Pumps.pump(process.getErrorStream(), err, false, "1 2>"));
+
+                int status = process.waitFor();
+                for (Future<?> pump : pumps) {
+                    Pumps.await(pump);
+                }
+                return status;
  
             } 
             catch (Exception e) {
                 err.println(e.getMessage());
-                return;
+                return 1;
             }
         }
     }
 
     public static File findExecutableFile(String command){
-        String pathEnv = System.getenv("PATH");
-        if(pathEnv == null) return null;
-        
-        String[] paths = pathEnv.split(System.getProperty("path.separator"));
-
-        for (String path : paths) {
-            File dir = new File(path);
-            File commandFile = new File(dir, command);
-            if(commandFile.exists() && commandFile.canExecute()){
-                return commandFile;
-            }
-        }
-        return null;
+        long lookupStart = System.nanoTime();
+        File file = PathIndex.shared().find(command);
+        Metrics.current().lookedUp(System.nanoTime() - lookupStart);
+        return file;
     }
     
 }
@@ -0,0 +1,160 @@
+package commands;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+// name -> executable index over $PATH, shared by command lookup, `type` and tab completion.
+// each directory is listed once and re-listed only when its mtime changes; resolved names
+// are remembered bash-style (see the `hash` builtin) so a hit costs one stat instead of a PATH walk.
+public class PathIndex {
+
+    private static final PathIndex SHARED = new PathIndex(() -> System.getenv("PATH"));
+
+    public static PathIndex shared() {
+        return SHARED;
+    }
+
+    private static final class DirListing {
+        final long lastModified;
+        final Map<String, File> executables;
+
+        DirListing(long lastModified, Map<String, File> executables) {
+            this.lastModified = lastModified;
+            this.executables = executables;
+        }
+    }
+
+    private static final class HashEntry {
+        final File file;
+        int hits;
+
+        HashEntry(File file) {
+            this.file = file;
+        }
+    }
+
+    private final Supplier<String> pathSource;
+    private final Map<String, DirListing> listings = new HashMap<>();
+    private final Map<String, HashEntry> hashed = new LinkedHashMap<>();
+    private String pathEnv;
+    private String[] dirs = new String[0];
+    private long generation = 0;
+
+    public PathIndex(Supplier<String> pathSource) {
+        this.pathSource = pathSource;
+    }
+
+    // resolves a command for execution and counts it as a hit in the hash table
+    public synchronized File find(String command) {
+        HashEntry entry = lookup(command);
+        if (entry == null) return null;
+        entry.hits++;
+        return entry.file;
+    }
+
+    // resolves a command without counting a hit (used by `type`)
+    public synchronized File resolve(String command) {
+        HashEntry entry = lookup(command);
+        return entry == null ? null : entry.file;
+    }
+
+    // all executable names across $PATH, refreshing any directory whose mtime moved
+    public synchronized List<String> executableNames() {
+        refreshPath();
+        TreeSet<String> names = new TreeSet<>();
+        for (String dir : dirs) {
+            names.addAll(listing(dir).executables.keySet());
+        }
+        return new ArrayList<>(names);
+    }
+
+    // bumped whenever a directory listing is rebuilt, so callers can cache views derived from it
+    public synchronized long generation() {
+        refreshPath();
+        for (String dir : dirs) listing(dir);
+        return generation;
+    }
+
+    public synchronized void clear() {
+        hashed.clear();
+        listings.clear();
+        generation++;
+    }
+
+    public synchronized boolean remember(String command) {
+        return lookup(command) != null;
+    }
+
+    public synchronized void print(PrintStream out) {
+        if (hashed.isEmpty()) {
+            out.println("hash: hash table empty");
+            return;
+        }
+        out.println("hits\tcommand");
+        for (HashEntry entry : hashed.values()) {
+            out.printf("%4d\t%s%n", entry.hits, entry.file.getAbsolutePath());
+        }
+    }
+
+    private HashEntry lookup(String command) {
+        refreshPath();
+
+        HashEntry entry = hashed.get(command);
+        if (entry != null) {
+            if (entry.file.isFile() && entry.file.canExecute()) return entry;
+            hashed.remove(command);
+        }
+
+        for (String dir : dirs) {
+            File file = listing(dir).executables.get(command);
+            if (file != null) {
+                entry = new HashEntry(file);
+                hashed.put(command, entry);
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void refreshPath() {
+        String current = pathSource.get();
+        if (current == null) current = "";
+        if (current.equals(pathEnv)) return;
+
+        pathEnv = current;
+        dirs = current.isEmpty() ? new String[0] : current.split(File.pathSeparator);
+        listings.keySet().retainAll(List.of(dirs));
+        hashed.clear();
+        generation++;
+    }
+
+    private DirListing listing(String dirPath) {
+        File dir = new File(dirPath);
+        long lastModified = dir.lastModified();
+
+        DirListing cached = listings.get(dirPath);
+        if (cached != null && cached.lastModified == lastModified) return cached;
+
+        Map<String, File> executables = new HashMap<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && f.canExecute()) executables.put(f.getName(), f);
+            }
+        }
+
+        DirListing listing = new DirListing(lastModified, executables.isEmpty() ? Collections.emptyMap() : executables);
+        listings.put(dirPath, listing);
+        if (cached != null) hashed.values().removeIf(e -> dir.getPath().equals(e.file.getParent()));
+        generation++;
+        return listing;
+    }
+}
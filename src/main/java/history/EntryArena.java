@@ -0,0 +1,133 @@
+package history;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// session history entries packed as UTF-8 into one byte array, with start/end offsets and a
+// session sequence number per slot (12 bytes of bookkeeping per entry instead of a String object).
+// live slots are [head, tail): evicting the oldest entry just advances head, and both the slot
+// arrays and the bytes are compacted once more than half of them is dead.
+final class EntryArena {
+
+    private byte[] data = new byte[4096];
+    private int dataEnd = 0;
+    private int liveBytes = 0;
+
+    private int[] starts = new int[256];
+    private int[] ends = new int[256];
+    private int[] seqs = new int[256];
+    private int head = 0;
+    private int tail = 0;
+
+    int size() {
+        return tail - head;
+    }
+
+    void add(byte[] bytes, int seq) {
+        if (tail == starts.length) makeSlotRoom();
+        if (dataEnd + bytes.length > data.length) makeDataRoom(bytes.length);
+
+        System.arraycopy(bytes, 0, data, dataEnd, bytes.length);
+        starts[tail] = dataEnd;
+        ends[tail] = dataEnd + bytes.length;
+        seqs[tail] = seq;
+        dataEnd += bytes.length;
+        liveBytes += bytes.length;
+        tail++;
+    }
+
+    String get(int index) {
+        int slot = head + index;
+        return new String(data, starts[slot], ends[slot] - starts[slot], StandardCharsets.UTF_8);
+    }
+
+    int seq(int index) {
+        return seqs[head + index];
+    }
+
+    boolean contentEquals(int index, byte[] bytes) {
+        int slot = head + index;
+        return Arrays.equals(data, starts[slot], ends[slot], bytes, 0, bytes.length);
+    }
+
+    int contentHash(int index) {
+        int slot = head + index;
+        return hash(data, starts[slot], ends[slot]);
+    }
+
+    // position of the entry with this sequence number, or -1 if it was evicted or erased
+    int indexOfSeq(int seq) {
+        int pos = Arrays.binarySearch(seqs, head, tail, seq);
+        return pos < 0 ? -1 : pos - head;
+    }
+
+    // first position whose sequence number is >= seq
+    int firstAtOrAfter(int seq) {
+        int pos = Arrays.binarySearch(seqs, head, tail, seq);
+        return (pos < 0 ? -pos - 1 : pos) - head;
+    }
+
+    void removeFirst() {
+        liveBytes -= ends[head] - starts[head];
+        if (++head == tail) {
+            head = tail = 0;
+            dataEnd = 0;
+        }
+    }
+
+    void remove(int index) {
+        if (index == 0) { removeFirst(); return; }
+        int slot = head + index;
+        liveBytes -= ends[slot] - starts[slot];
+        int moved = tail - slot - 1;
+        System.arraycopy(starts, slot + 1, starts, slot, moved);
+        System.arraycopy(ends, slot + 1, ends, slot, moved);
+        System.arraycopy(seqs, slot + 1, seqs, slot, moved);
+        tail--;
+    }
+
+    static int hash(byte[] bytes, int from, int to) {
+        int h = 1;
+        for (int i = from; i < to; i++) h = 31 * h + bytes[i];
+        return h;
+    }
+
+    private void makeSlotRoom() {
+        if (head > size()) {
+            compactSlots();
+            return;
+        }
+        int capacity = starts.length * 2;
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        seqs = Arrays.copyOf(seqs, capacity);
+    }
+
+    private void compactSlots() {
+        int live = size();
+        System.arraycopy(starts, head, starts, 0, live);
+        System.arraycopy(ends, head, ends, 0, live);
+        System.arraycopy(seqs, head, seqs, 0, live);
+        head = 0;
+        tail = live;
+    }
+
+    private void makeDataRoom(int needed) {
+        byte[] target = data;
+        if (liveBytes + needed > data.length / 2) {
+            target = new byte[Math.max(data.length * 2, liveBytes + needed)];
+        }
+
+        // copy live entries down to the front of the target, squeezing out erased entries
+        int pos = 0;
+        for (int slot = head; slot < tail; slot++) {
+            int len = ends[slot] - starts[slot];
+            System.arraycopy(data, starts[slot], target, pos, len);
+            starts[slot] = pos;
+            ends[slot] = pos + len;
+            pos += len;
+        }
+        data = target;
+        dataEnd = pos;
+    }
+}
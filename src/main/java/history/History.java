@@ -1,115 +1,435 @@
 package history;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import metrics.Events;
+import metrics.HistoryIoEvent;
+
+// the HISTFILE read at startup stays memory-mapped (see MappedHistoryFile); entries added during
+// the session follow it, packed into an EntryArena. the cursor counts steps back from the newest
+// entry, so arrow key navigation never needs the total line count of the mapped file.
+//
+// HISTSIZE caps the entries kept (oldest evicted first), HISTFILESIZE caps the lines kept in the
+// file; as in bash, HISTSIZE defaults to 500 and HISTFILESIZE to HISTSIZE, 0 keeps nothing, and a
+// negative, empty or non-numeric value means no limit. HISTCONTROL=ignoredups/erasedups/ignoreboth drops repeated commands. with HISTSHARE set,
+// every entry is appended to HISTFILE as it is added (see SharedHistoryFile).
+//
+// synchronized throughout: the shared-file writer runs on its own thread.
 public class History {
-    private final List<String> entries = new ArrayList<>();
-    private int cursor = -1;
-    private int appendedUpTo = 0;
+    public static final int UNLIMITED = -1;
+    private static final int DEFAULT_SIZE = 500;
+
+    private final int maxEntries;
+    private final int maxFileLines;
+    private final boolean ignoreDups;
+    private final boolean eraseDups;
+
+    private MappedHistoryFile loaded = null;
+    private int loadedStart = 0;              // mapped lines evicted by HISTSIZE
+    private final EntryArena entries = new EntryArena();
+    private int nextSeq = 0;                  // session sequence numbers, never reused
+    private int appendedUpTo = 0;             // first session sequence number not yet in the file
+    private long evicted = 0;                 // keeps `history` numbers stable as old entries go
+    private int stepsBack = 0;
+    private HistorySearchIndex searchIndex = null;
+    private SharedHistoryFile shared = null;
+    private final BitSet importedSeqs = new BitSet(); // pulled from the shared file, never written back
+    private Map<Integer, int[]> seqsByHash = null; // erasedups only: content hash -> live sequence numbers
 
-    public void addEntry(String entry){
+    public History() {
+        this(UNLIMITED, UNLIMITED, false, false);
+    }
+
+    public History(int maxEntries, int maxFileLines, boolean ignoreDups, boolean eraseDups) {
+        this.maxEntries = maxEntries;
+        this.maxFileLines = maxFileLines;
+        this.ignoreDups = ignoreDups || eraseDups;
+        this.eraseDups = eraseDups;
+        if (eraseDups) seqsByHash = new HashMap<>();
+    }
+
+    public static History fromEnvironment() {
+        String control = System.getenv("HISTCONTROL");
+        control = control == null ? "" : control;
+        int size = parseLimit(System.getenv("HISTSIZE"), DEFAULT_SIZE);
+        return new History(
+            size,
+            parseLimit(System.getenv("HISTFILESIZE"), size),
+            control.contains("ignoredups") || control.contains("ignoreboth"),
+            control.contains("erasedups")
+        );
+    }
+
+    private static int parseLimit(String value, int unset) {
+        if (value == null) return unset;
+        try {
+            int limit = Integer.parseInt(value.trim());
+            return limit < 0 ? UNLIMITED : limit;
+        } catch (NumberFormatException e) {
+            return UNLIMITED;
+        }
+    }
+
+    public synchronized void addEntry(String entry){
         if (entry == null) return;
-        entries.add(entry);
-        cursor = -1;
+        append(entry);
+        stepsBack = 0;
+        if (shared != null) shared.entryAdded();
+    }
+
+    private void append(String entry) {
+        if (ignoreDups && entry.equals(fromEnd(0))) return;
+
+        byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+        int hash = eraseDups ? EntryArena.hash(bytes, 0, bytes.length) : 0;
+        if (eraseDups) eraseEqual(bytes, hash);
+
+        int seq = nextSeq++;
+        entries.add(bytes, seq);
+        if (eraseDups) addSeq(hash, seq);
+
+        if (maxEntries != UNLIMITED) {
+            while (size() > maxEntries) evictOldest();
+        }
     }
 
-    public void loadIfExists(String filename) {
+    private void evictOldest() {
+        evicted++;
+        if (loadedStart < loadedSize()) {
+            loadedStart++;
+            return;
+        }
+        if (eraseDups) removeSeq(entries.contentHash(0), entries.seq(0));
+        entries.removeFirst();
+    }
+
+    private void eraseEqual(byte[] bytes, int hash) {
+        int[] seqs = seqsByHash.get(hash);
+        if (seqs == null) return;
+        for (int seq : seqs) {
+            int index = entries.indexOfSeq(seq);
+            if (index >= 0 && entries.contentEquals(index, bytes)) {
+                entries.remove(index);
+                removeSeq(hash, seq);
+                return;
+            }
+        }
+    }
+
+    private void addSeq(int hash, int seq) {
+        int[] seqs = seqsByHash.get(hash);
+        if (seqs == null) {
+            seqsByHash.put(hash, new int[] { seq });
+        } else {
+            int[] grown = Arrays.copyOf(seqs, seqs.length + 1);
+            grown[seqs.length] = seq;
+            seqsByHash.put(hash, grown);
+        }
+    }
+
+    private void removeSeq(int hash, int seq) {
+        int[] seqs = seqsByHash.get(hash);
+        if (seqs == null) return;
+
+        int at = -1;
+        for (int i = 0; i < seqs.length; i++) {
+            if (seqs[i] == seq) at = i;
+        }
+        if (at < 0) return;
+        if (seqs.length == 1) {
+            seqsByHash.remove(hash);
+            return;
+        }
+        int[] kept = new int[seqs.length - 1];
+        System.arraycopy(seqs, 0, kept, 0, at);
+        System.arraycopy(seqs, at + 1, kept, at, seqs.length - at - 1);
+        seqsByHash.put(hash, kept);
+    }
+
+    public synchronized void loadIfExists(String filename) {
         File file = new File(filename);
         if (!file.exists() && !file.isFile()) { return ;}
 
-        try (java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.FileReader(file))) {
-            String entry;
-            while ((entry = reader.readLine()) != null) {
-                entries.add(entry);
-            }
-            appendedUpTo = entries.size();
+        HistoryIoEvent event = Events.historyIo("load", filename);
+        try {
+            loaded = MappedHistoryFile.open(file, maxEntries);
+            loadedStart = 0;
+            appendedUpTo = nextSeq;
         } catch (IOException e) {
             System.err.println("history: error reading file: " + e.getMessage());
         }
+        Events.historyIoDone(event, loaded == null ? 0 : loaded.size());
+    }
+
+    // HISTSHARE mode: start appending every entry to this file in the background
+    public synchronized void shareFile(String filename) {
+        File file = new File(filename).getAbsoluteFile();
+        if (loaded != null && maxFileLines != UNLIMITED) {
+            // the shared file is trimmed in place, under the mapping; its lines move into the arena
+            List<String> lines = new ArrayList<>();
+            for (int i = loadedStart, n = loadedSize(); i < n; i++) lines.add(loaded.get(i));
+            loaded = null;
+            loadedStart = 0;
+            importForeign(lines);
+        }
+        shared = new SharedHistoryFile(file.toPath(), file.length(), maxFileLines, this);
+        appendedUpTo = nextSeq;
+        shared.start();
+    }
+
+    // `history -n`: pull in lines other sessions appended to the shared file since we last looked
+    public void readNewFromFile(String filename) {
+        SharedHistoryFile sync;
+        synchronized (this) { sync = shared; }
+        if (sync != null && sync.path().equals(new File(filename).getAbsoluteFile().toPath())) {
+            sync.sync();
+        } else {
+            System.err.println("history: -n needs HISTSHARE and the shared HISTFILE");
+        }
     }
 
-    public void readFromFile(String filename) {
+    synchronized int unwrittenMark() {
+        return appendedUpTo;
+    }
+
+    // a batch from takeUnwritten() that did not reach the file is taken again next time
+    synchronized void restoreUnwritten(int mark) {
+        appendedUpTo = Math.min(appendedUpTo, mark);
+    }
+
+    synchronized List<byte[]> takeUnwritten() {
+        List<byte[]> batch = new ArrayList<>();
+        for (int i = entries.firstAtOrAfter(appendedUpTo); i < entries.size(); i++) {
+            if (importedSeqs.get(entries.seq(i))) continue;
+            batch.add(entries.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        appendedUpTo = nextSeq;
+        return batch;
+    }
+
+    synchronized void importForeign(List<String> lines) {
+        for (String line : lines) {
+            int seq = nextSeq;
+            append(line);
+            if (nextSeq > seq) importedSeqs.set(seq);
+        }
+    }
+
+    public synchronized void readFromFile(String filename) {
         File file = new File(filename);
         if (!file.exists() || !file.isFile()) {
             System.err.println("history: file not found: " + filename);
             return;
         }
-        try (java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.FileReader(file))) {
-            String entry;
-            while ((entry = reader.readLine()) != null) {
-                entries.add(entry);
+        HistoryIoEvent event = Events.historyIo("read", filename);
+        int entries = 0;
+        try {
+            MappedHistoryFile read = MappedHistoryFile.open(file, maxEntries);
+            for (int n = read.size(); entries < n; entries++) {
+                append(read.get(entries));
             }
         } catch (IOException e) {
             System.err.println("history: error reading file: " + e.getMessage());
         }
+        Events.historyIoDone(event, entries);
     }
 
-    public void writeToFile(String filename) {
-        File file = new File(filename);
-        try (java.io.BufferedWriter writer = new java.io.BufferedWriter(new java.io.FileWriter(file))) {
-            for (String entry : entries) {
-                writer.write(entry);
-                writer.newLine();
+    // written to a sibling temp file and moved into place: the target may be the file we have mapped
+    public synchronized void writeToFile(String filename) {
+        File file = new File(filename).getAbsoluteFile();
+        HistoryIoEvent event = Events.historyIo("write", filename);
+        int entries = 0;
+        try {
+            File tmp = siblingTempFile(file);
+            try (OutputStream writer = new java.io.BufferedOutputStream(new java.io.FileOutputStream(tmp))) {
+                int size = size();
+                int from = maxFileLines != UNLIMITED ? Math.max(0, size - maxFileLines) : 0;
+                entries = size - from;
+                int visibleLoaded = visibleLoaded();
+                if (from == 0 && loadedStart == 0 && loaded != null) {
+                    loaded.copyTo(writer);
+                    from = visibleLoaded;
+                }
+                for (int i = from; i < size; i++) {
+                    writer.write(get(i).getBytes(StandardCharsets.UTF_8));
+                    writer.write('\n');
+                }
             }
-            appendedUpTo = entries.size();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            appendedUpTo = nextSeq;
         } catch (IOException e) {
             System.err.println("history: error writing to file: " + e.getMessage());
         }
+        Events.historyIoDone(event, entries);
     }
 
+    // appends session entries not yet written; sequence numbers keep this right after evictions and erasures
     public void appendToFile(String filename) {
+        SharedHistoryFile sync;
+        synchronized (this) { sync = shared; }
+        if (sync != null && sync.path().equals(new File(filename).getAbsoluteFile().toPath())) {
+            sync.sync();
+        } else {
+            appendUnwritten(filename);
+        }
+    }
+
+    private synchronized void appendUnwritten(String filename) {
         File file = new File(filename);
-        try (java.io.BufferedWriter writer = new java.io.BufferedWriter(new java.io.FileWriter(file, true))) {
-            for (int i = appendedUpTo; i < entries.size(); i++) {
-                writer.write(entries.get(i));
-                writer.newLine();
+        HistoryIoEvent event = Events.historyIo("append", filename);
+        int entries = 0;
+        try (OutputStream writer = new java.io.BufferedOutputStream(new java.io.FileOutputStream(file, true))) {
+            for (byte[] line : takeUnwritten()) {
+                writer.write(line);
+                writer.write('\n');
+                entries++;
             }
-            appendedUpTo = entries.size();
         } catch (IOException e) {
             System.err.println("history: error appending to file: " + e.getMessage());
+            return;
+        } finally {
+            Events.historyIoDone(event, entries);
         }
+        if (maxFileLines != UNLIMITED) truncateFile(file);
     }
 
-    public void printAll(PrintStream out) {
-        for (int i = 0; i < entries.size(); i++) {
-            out.println((i + 1) + " " + entries.get(i));
+    // keeps only the newest HISTFILESIZE lines
+    private void truncateFile(File file) {
+        HistoryIoEvent event = Events.historyIo("truncate", file.getPath());
+        int entries = 0;
+        try {
+            MappedHistoryFile current = MappedHistoryFile.open(file, UNLIMITED);
+            int lines = current.size();
+            if (lines <= maxFileLines) return;
+            entries = maxFileLines;
+
+            File target = file.getAbsoluteFile();
+            File tmp = siblingTempFile(target);
+            try (OutputStream writer = new java.io.BufferedOutputStream(new java.io.FileOutputStream(tmp))) {
+                for (int i = lines - maxFileLines; i < lines; i++) {
+                    writer.write(current.get(i).getBytes(StandardCharsets.UTF_8));
+                    writer.write('\n');
+                }
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("history: error truncating file: " + e.getMessage());
+        } finally {
+            Events.historyIoDone(event, entries);
+        }
+    }
+
+    // File.createTempFile wants a prefix of at least three characters, and HISTFILE names can be shorter
+    private static File siblingTempFile(File file) throws IOException {
+        return Files.createTempFile(file.getParentFile().toPath(), file.getName() + ".", ".tmp").toFile();
+    }
+
+    public synchronized int size() {
+        checkLoaded();
+        return visibleLoaded() + entries.size();
+    }
+
+    public synchronized String get(int index) {
+        int visibleLoaded = visibleLoaded();
+        return index < visibleLoaded ? loaded.get(loadedStart + index) : entries.get(index - visibleLoaded);
+    }
+
+    public synchronized void printAll(PrintStream out) {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            out.println((evicted + i + 1) + " " + get(i));
         }
     }
 
-    public void printLastN(PrintStream out, int n) {
-        if(n < 1 || n > entries.size()){ return; }
+    public synchronized void printLastN(PrintStream out, int n) {
+        int size = size();
+        if(n < 1 || n > size){ return; }
 
-        int start = Math.max(0, entries.size() - n);
-        for (int i = start; i < entries.size(); i++) {
-            out.println((i + 1) + " " + entries.get(i));
+        int start = Math.max(0, size - n);
+        for (int i = start; i < size; i++) {
+            out.println((evicted + i + 1) + " " + get(i));
         }
     }
 
-    public String getPrevious() {
-        if (entries.isEmpty()) { return null;}
-        if (cursor == -1) cursor = entries.size() - 1;
-        else if (cursor > 0) cursor--;
-        else return null;
-        return entries.get(cursor);
+    public synchronized String getPrevious() {
+        checkLoaded();
+        String entry = fromEnd(stepsBack);
+        if (entry == null) return null;
+        stepsBack++;
+        return entry;
     }
 
-    public String getNext() {
-        if (entries.isEmpty() || cursor == -1) { return null;}
-        if (cursor < entries.size() - 1) {
-            cursor++;
-            return entries.get(cursor);
+    public synchronized String getNext() {
+        checkLoaded();
+        if (stepsBack == 0) { return null;}
+        if (stepsBack > 1) {
+            stepsBack--;
+            return fromEnd(stepsBack - 1);
         } else {
-            cursor = -1;
+            stepsBack = 0;
             return null;
         }
     }
 
+    // search ids stay valid while entries are evicted or erased: mapped lines use their line
+    // number, session entries come after them by sequence number
+    public synchronized int nextId() {
+        return loadedSize() + nextSeq;
+    }
+
+    public synchronized String entryById(int id) {
+        int loadedSize = loadedSize();
+        if (id < loadedSize) return id >= loadedStart ? loaded.get(id) : null;
+        int index = entries.indexOfSeq(id - loadedSize);
+        return index < 0 ? null : entries.get(index);
+    }
+
+    // id of the newest entry below `before` containing `query`, or -1. the index is built on the
+    // first search and then only catches up with entries added since
+    public synchronized int search(String query, int before) {
+        checkLoaded();
+        if (searchIndex == null) searchIndex = new HistorySearchIndex();
+        int next = nextId();
+        for (int id = searchIndex.indexedUpTo(); id < next; id++) {
+            String entry = entryById(id);
+            searchIndex.add(id, entry == null ? "" : entry);
+        }
+        return searchIndex.findLatest(query, before, this::entryById);
+    }
 
+    // HISTFILE truncated under its mapping is mapped again, and its lines are numbered afresh
+    private void checkLoaded() {
+        if (loaded == null || !loaded.remapIfShrunk()) return;
+        loadedStart = Math.min(loadedStart, loaded.size());
+        stepsBack = 0;
+        searchIndex = null;
+    }
 
+    private String fromEnd(int k) {
+        if (k < entries.size()) return entries.get(entries.size() - 1 - k);
+        if (loaded == null) return null;
+        // without evictions the mapped file answers directly, and never needs its full line count
+        if (loadedStart > 0 && k - entries.size() >= visibleLoaded()) return null;
+        return loaded.fromEnd(k - entries.size());
+    }
 
+    // a remap after a fault can leave fewer lines than were evicted, until checkLoaded() runs
+    private int visibleLoaded() {
+        return Math.max(0, loadedSize() - loadedStart);
+    }
 
-    
+    private int loadedSize() {
+        return loaded == null ? 0 : loaded.size();
+    }
 }
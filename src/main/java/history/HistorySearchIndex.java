@@ -0,0 +1,127 @@
+package history;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.IntFunction;
+
+// trigram -> ascending list of entry numbers containing it. a query of three or more chars walks
+// the lists of all its trigrams together from the newest entry down (leapfrog intersection), so only
+// entries holding every trigram are verified; shorter queries fall back to a backwards scan, which
+// finds common one- and two-letter substrings almost immediately.
+final class HistorySearchIndex {
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size > 0 && values[size - 1] == value) return;
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        // position of the last value < bound, or -1
+        int lastBelow(int bound) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < bound) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo - 1;
+        }
+    }
+
+    // open-addressing trigram table; keys[i] == 0 marks a free slot (a trigram is never all NULs)
+    private long[] keys = new long[1 << 12];
+    private IntList[] lists = new IntList[1 << 12];
+    private int used = 0;
+    private int indexedUpTo = 0;
+
+    int indexedUpTo() {
+        return indexedUpTo;
+    }
+
+    void add(int id, String entry) {
+        for (int i = 0; i + 3 <= entry.length(); i++) {
+            listFor(trigram(entry, i), true).add(id);
+        }
+        indexedUpTo = id + 1;
+    }
+
+    // newest entry id below `before` that contains `query`, or -1
+    int findLatest(String query, int before, IntFunction<String> entries) {
+        if (query.isEmpty()) return -1;
+        before = Math.min(before, indexedUpTo);
+
+        if (query.length() < 3) {
+            for (int id = before - 1; id >= 0; id--) {
+                String entry = entries.apply(id);
+                if (entry != null && entry.contains(query)) return id;
+            }
+            return -1;
+        }
+
+        int count = query.length() - 2;
+        IntList[] required = new IntList[count];
+        for (int i = 0; i < count; i++) {
+            required[i] = listFor(trigram(query, i), false);
+            if (required[i] == null) return -1;
+        }
+        Arrays.sort(required, Comparator.comparingInt(list -> list.size));
+
+        int target = before - 1;
+        while (target >= 0) {
+            boolean agreed = true;
+            for (IntList list : required) {
+                int pos = list.lastBelow(target + 1);
+                if (pos < 0) return -1;
+                if (list.values[pos] < target) {
+                    target = list.values[pos];
+                    agreed = false;
+                }
+            }
+            if (agreed) {
+                String entry = entries.apply(target);
+                if (entry != null && entry.contains(query)) return target;
+                target--;
+            }
+        }
+        return -1;
+    }
+
+    private IntList listFor(long key, boolean create) {
+        int mask = keys.length - 1;
+        int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) return lists[slot];
+            slot = (slot + 1) & mask;
+        }
+        if (!create) return null;
+
+        keys[slot] = key;
+        lists[slot] = new IntList();
+        IntList created = lists[slot];
+        if (++used * 2 > keys.length) grow();
+        return created;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        IntList[] oldLists = lists;
+        keys = new long[oldKeys.length * 2];
+        lists = new IntList[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = Long.hashCode(oldKeys[i] * 0x9E3779B97F4A7C15L) & mask;
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            lists[slot] = oldLists[i];
+        }
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}
@@ -0,0 +1,160 @@
+package history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// read-only, memory-mapped view of a history file. opening only maps the file; line starts are
+// indexed lazily, scanning backwards from the end, into an int array, and entries are decoded to
+// Strings only when asked for. walking back with the arrow keys touches just the tail of the file.
+//
+// other programs may truncate the file under the mapping: `> ~/.bash_history`, a shell rewriting
+// it in place, another session sharing it. touching a page past the new end of the file faults
+// (SIGBUS, an InternalError in Java), so History calls remapIfShrunk() before it reads, and a fault
+// that still gets in between remaps as well. a remapped file numbers its lines afresh.
+final class MappedHistoryFile {
+
+    private final File file;
+    private final int maxLines;
+    private ByteBuffer data;
+    private long mappedSize;           // the file's size when it was mapped
+    private int end;                   // end of the last line, without its trailing newline
+    private int[] starts = new int[64]; // starts[k] = offset of the k-th line counting back from the newest
+    private int indexed;
+    private int scanPos;               // everything at or after scanPos has been indexed
+    private boolean complete;
+
+    private MappedHistoryFile(File file, int maxLines) {
+        this.file = file;
+        this.maxLines = maxLines;
+    }
+
+    // files beyond 2 GB keep only their newest 2 GB worth of lines; a maxLines other than
+    // History.UNLIMITED keeps only that many of the newest lines, which bounds the index scan as well
+    static MappedHistoryFile open(File file, int maxLines) throws IOException {
+        MappedHistoryFile mapped = new MappedHistoryFile(file, maxLines);
+        mapped.map();
+        return mapped;
+    }
+
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long offset = Math.max(0, size - Integer.MAX_VALUE);
+            reset(channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset), size);
+            if (offset > 0) skipPartialFirstLine();
+            if (maxLines != History.UNLIMITED) keepNewest(maxLines);
+        }
+    }
+
+    private void reset(ByteBuffer data, long size) {
+        this.data = data;
+        int limit = data.limit();
+        mappedSize = size;
+        end = limit > 0 && data.get(limit - 1) == '\n' ? limit - 1 : limit;
+        scanPos = end;
+        complete = limit == 0;
+        indexed = 0;
+    }
+
+    // true when the file shrank since it was mapped and has been mapped again (or, if it is gone, emptied)
+    boolean remapIfShrunk() {
+        if (file.length() >= mappedSize) return false;
+        try {
+            map();
+        } catch (IOException e) {
+            reset(ByteBuffer.allocate(0), 0);
+        }
+        return true;
+    }
+
+    // a fault from a truncation after the last remapIfShrunk(); anything else is a real error
+    private void faulted(InternalError e) {
+        if (!remapIfShrunk()) throw e;
+    }
+
+    int size() {
+        try {
+            indexUntil(Integer.MAX_VALUE);
+        } catch (InternalError e) {
+            faulted(e);
+            indexUntil(Integer.MAX_VALUE);
+        }
+        return indexed;
+    }
+
+    String get(int index) {
+        int size = size();
+        return index < 0 || index >= size ? null : fromEnd(size - 1 - index);
+    }
+
+    // k = 0 is the newest line; null once k runs past the oldest
+    String fromEnd(int k) {
+        try {
+            return read(k);
+        } catch (InternalError e) {
+            faulted(e);
+            return read(k);
+        }
+    }
+
+    private String read(int k) {
+        indexUntil(k + 1);
+        if (k < 0 || k >= indexed) return null;
+
+        int from = starts[k];
+        int to = k == 0 ? end : starts[k - 1] - 1;
+        if (to > from && data.get(to - 1) == '\r') to--;
+
+        byte[] bytes = new byte[to - from];
+        data.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // copies the raw bytes of every line (newline-terminated) without decoding them
+    void copyTo(OutputStream out) throws IOException {
+        if (size() == 0) return;
+        int from = starts[indexed - 1];
+        byte[] chunk = new byte[64 * 1024];
+        try {
+            for (int pos = from; pos < end; pos += chunk.length) {
+                int len = Math.min(chunk.length, end - pos);
+                data.get(pos, chunk, 0, len);
+                out.write(chunk, 0, len);
+            }
+        } catch (InternalError e) {
+            faulted(e);
+            throw new IOException(file + " was truncated while being copied");
+        }
+        out.write('\n');
+    }
+
+    private void indexUntil(int wanted) {
+        while (indexed < wanted && !complete) {
+            int pos = scanPos - 1;
+            while (pos >= 0 && data.get(pos) != '\n') pos--;
+
+            if (indexed == starts.length) starts = Arrays.copyOf(starts, indexed * 2);
+            starts[indexed++] = pos + 1;
+            scanPos = pos;
+            if (pos < 0) complete = true;
+        }
+    }
+
+    private void keepNewest(int maxLines) {
+        indexUntil(maxLines);
+        if (indexed > maxLines) indexed = maxLines;
+        complete = true;
+    }
+
+    private void skipPartialFirstLine() {
+        // the mapping started mid-file: drop the (probably cut) first line once indexing reaches it
+        size();
+        if (indexed > 1) indexed--;
+    }
+}
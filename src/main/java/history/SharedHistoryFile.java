@@ -0,0 +1,223 @@
+package history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import metrics.Events;
+import metrics.HistoryIoEvent;
+
+// HISTFILE shared by many shells (HISTSHARE): every new entry is handed to a background writer
+// that appends whatever has piled up under an exclusive FileChannel lock, so concurrent sessions
+// never interleave partial lines and nothing is lost on a crash. while holding the lock it also
+// reads the lines other sessions appended since our last look, from the tracked file offset, and
+// trims the file to HISTFILESIZE lines in place: renaming a new file over it would leave the other
+// sessions locking the old one.
+final class SharedHistoryFile {
+
+    private static final int SEEN_BYTES = 64;
+
+    private final Path path;
+    private final int maxLines;
+    private final History history;
+    private final Semaphore pending = new Semaphore(0);
+    private long knownOffset;
+    private byte[] seen = new byte[0]; // the line that ends at knownOffset, see lastLine()
+
+    SharedHistoryFile(Path path, long knownOffset, int maxLines, History history) {
+        this.path = path;
+        this.knownOffset = knownOffset;
+        this.maxLines = maxLines;
+        this.history = history;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    void start() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                knownOffset = Math.min(knownOffset, channel.size());
+                seen = lastLine(channel, knownOffset);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            System.err.println("history: error reading " + path + ": " + e.getMessage());
+        }
+        Thread.ofVirtual().name("history-writer").start(() -> {
+            while (true) {
+                try {
+                    pending.acquire();
+                    pending.drainPermits();
+                    sync();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+    }
+
+    void entryAdded() {
+        pending.release();
+    }
+
+    // writes our unwritten entries and imports everyone else's; also used by `history -n` and on exit.
+    // the batch is taken once the lock is held and handed back if the write fails, to go out next time
+    synchronized void sync() {
+        List<byte[]> batch = List.of();
+        List<String> foreign = new ArrayList<>();
+        HistoryIoEvent event = Events.historyIo("sync", path.toString());
+        int mark = history.unwrittenMark();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.lock();
+            try {
+                batch = history.takeUnwritten();
+                long size = channel.size();
+                knownOffset = locate(channel, size);
+                long readUpTo = size > knownOffset ? readLines(channel, knownOffset, size, foreign) : size;
+                if (readUpTo < size && !batch.isEmpty()) {
+                    // another writer left its last line open; take it as it is and end it before ours
+                    foreign.add(new String(readBytes(channel, readUpTo, size), StandardCharsets.UTF_8));
+                    batch.add(0, new byte[0]);
+                    readUpTo = size;
+                }
+
+                ByteBuffer out = encode(batch);
+                long position = size;
+                while (out.hasRemaining()) {
+                    position += channel.write(out, position);
+                }
+                // otherwise an open last line is read again, complete, next time
+                knownOffset = readUpTo == size ? position : readUpTo;
+                if (maxLines != History.UNLIMITED) {
+                    long cut = trimmedStart(channel, position);
+                    if (cut > 0) {
+                        moveDown(channel, cut, position);
+                        channel.truncate(position - cut);
+                        knownOffset = Math.max(0, knownOffset - cut);
+                    }
+                }
+                seen = lastLine(channel, knownOffset);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            history.restoreUnwritten(mark);
+            System.err.println("history: error syncing " + path + ": " + e.getMessage());
+            return;
+        } finally {
+            Events.historyIoDone(event, batch.size() + foreign.size());
+        }
+
+        if (!foreign.isEmpty()) history.importForeign(foreign);
+    }
+
+    // another session's trim, or a `history -w` from anywhere, rewrites the file under our offset. the
+    // line we saw last tells: if it moved, continue after its last occurrence, or else at the end
+    private long locate(FileChannel channel, long size) throws IOException {
+        if (knownOffset <= size && Arrays.equals(lineEndingAt(channel, knownOffset, seen.length), seen)) return knownOffset;
+
+        byte[] all = lineEndingAt(channel, size, (int) Math.min(size + 1, Integer.MAX_VALUE - 8));
+        for (int at = all.length - seen.length; at >= 0; at--) {
+            if (Arrays.equals(all, at, at + seen.length, seen, 0, seen.length)) return size - all.length + at + seen.length;
+        }
+        return size;
+    }
+
+    // '\n' + the last line before `end` with its newline, so it only matches whole lines; the start
+    // of the file counts as a newline. a line longer than SEEN_BYTES is represented by its tail
+    private static byte[] lastLine(FileChannel channel, long end) throws IOException {
+        if (end == 0) return new byte[0];
+        byte[] tail = lineEndingAt(channel, end, (int) Math.min(end + 1, SEEN_BYTES));
+        int start = tail.length - 1;
+        while (start > 0 && tail[start - 1] != '\n') start--;
+        return start > 0 ? Arrays.copyOfRange(tail, start - 1, tail.length) : tail;
+    }
+
+    // the `length` bytes before `end`, reading the position just before the file as a '\n'
+    private static byte[] lineEndingAt(FileChannel channel, long end, int length) throws IOException {
+        if (length <= end) return readBytes(channel, end - length, end);
+        byte[] bytes = new byte[length];
+        if (length > end + 1) return bytes; // matches no line
+        bytes[0] = '\n';
+        byte[] file = readBytes(channel, 0, end);
+        System.arraycopy(file, 0, bytes, 1, file.length);
+        return bytes;
+    }
+
+    // offset of the oldest of the newest maxLines lines in [0, end); 0 when there are no more than that
+    private long trimmedStart(FileChannel channel, long end) throws IOException {
+        if (maxLines == 0) return end;
+        long pos = end > 0 && readBytes(channel, end - 1, end)[0] == '\n' ? end - 1 : end;
+        int newlines = 0;
+        while (pos > 0) {
+            long from = Math.max(0, pos - 64 * 1024);
+            byte[] chunk = readBytes(channel, from, pos);
+            for (int i = chunk.length - 1; i >= 0; i--) {
+                if (chunk[i] == '\n' && ++newlines == maxLines) return from + i + 1;
+            }
+            pos = from;
+        }
+        return 0;
+    }
+
+    // copies [from, end) to the start of the file
+    private static void moveDown(FileChannel channel, long from, long end) throws IOException {
+        for (long pos = from; pos < end; ) {
+            ByteBuffer chunk = ByteBuffer.wrap(readBytes(channel, pos, Math.min(end, pos + 64 * 1024)));
+            long target = pos - from;
+            while (chunk.hasRemaining()) target += channel.write(chunk, target);
+            pos += chunk.capacity();
+        }
+    }
+
+    private static byte[] readBytes(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (to - from));
+        while (buffer.hasRemaining() && channel.read(buffer, from + buffer.position()) >= 0) { }
+        return buffer.array();
+    }
+
+    // reads complete lines in [from, to); returns the offset just past the last newline
+    private static long readLines(FileChannel channel, long from, long to, List<String> lines) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(to - from, Integer.MAX_VALUE - 8));
+        long position = from;
+        while (buffer.hasRemaining() && position < to) {
+            int read = channel.read(buffer, position);
+            if (read < 0) break;
+            position += read;
+        }
+
+        byte[] bytes = buffer.array();
+        int length = buffer.position();
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != '\n') continue;
+            int lineEnd = i > lineStart && bytes[i - 1] == '\r' ? i - 1 : i;
+            lines.add(new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+            lineStart = i + 1;
+        }
+        return from + lineStart;
+    }
+
+    private static ByteBuffer encode(List<byte[]> batch) {
+        int total = 0;
+        for (byte[] line : batch) total += line.length + 1;
+        ByteBuffer out = ByteBuffer.allocate(total);
+        for (byte[] line : batch) {
+            out.put(line).put((byte) '\n');
+        }
+        return out.flip();
+    }
+}
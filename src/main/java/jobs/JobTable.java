@@ -0,0 +1,187 @@
+package jobs;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import pipes.PipelineRunner;
+
+// background jobs started with '&'. each job runs its pipeline on its own virtual thread; the table
+// keeps the task's Future and the processes PipelineRunner reports once they have started. finished
+// jobs are announced once, before the next prompt or by `jobs`, in bash's format.
+public final class JobTable {
+
+    // runs a job's pipeline, passing its processes to the listener once started; returns the status
+    public interface Body {
+        int run(PipelineRunner.ProcessListener listener) throws Exception;
+    }
+
+    public static final class Job {
+        private final int id;
+        private final String command;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private volatile List<Process> processes = List.of();
+        private volatile Future<Integer> task;
+
+        private Job(int id, String command) {
+            this.id = id;
+            this.command = command;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        // the last process of the pipeline, as bash reports it; -1 for builtin-only jobs
+        public long pid() {
+            List<Process> running = processes;
+            return running.isEmpty() ? -1 : running.get(running.size() - 1).pid();
+        }
+
+        private boolean isDone() {
+            return task.isDone();
+        }
+
+        private int awaitStatus() throws InterruptedException {
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                return 1;
+            }
+        }
+    }
+
+    private static final ExecutorService EXECUTOR =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("job-", 1).factory());
+    private static final TreeMap<Integer, Job> JOBS = new TreeMap<>(); // guarded by JobTable.class
+
+    // set on a job's thread and inherited by the stage and pump threads it starts. '&' runs in a
+    // subshell in bash, whose job table is empty; here too, so `wait &` or `fg &` cannot wait on itself
+    private static final InheritableThreadLocal<Job> CURRENT = new InheritableThreadLocal<>();
+
+    private JobTable() {}
+
+    // returns once the job's processes are running (or it already finished), so its pid is known.
+    // the job is only put in the table with its task set, since other threads list the table
+    public static Job start(String command, Body body) throws InterruptedException {
+        Job job;
+        synchronized (JobTable.class) {
+            job = new Job(JOBS.isEmpty() ? 1 : JOBS.lastKey() + 1, command);
+            job.task = EXECUTOR.submit(() -> {
+                CURRENT.set(job);
+                try {
+                    return body.run(processes -> {
+                        job.processes = processes;
+                        job.started.countDown();
+                    });
+                } finally {
+                    job.started.countDown();
+                }
+            });
+            JOBS.put(job.id, job);
+        }
+        job.started.await();
+        return job;
+    }
+
+    public static synchronized void announceFinished(PrintStream out) {
+        List<Job> done = new ArrayList<>();
+        for (Job job : JOBS.values()) {
+            if (job.isDone()) done.add(job);
+        }
+        for (Job job : done) {
+            print(job, out);
+            JOBS.remove(job.id);
+        }
+    }
+
+    public static synchronized int jobs(PrintStream out) {
+        if (CURRENT.get() != null) return 0;
+        List<Job> done = new ArrayList<>();
+        for (Job job : JOBS.values()) {
+            print(job, out);
+            if (job.isDone()) done.add(job);
+        }
+        for (Job job : done) JOBS.remove(job.id);
+        return 0;
+    }
+
+    // `wait` waits for every job; `wait %n ...` for those, returning the last one's status.
+    // a waited-for job has been reported by its status and leaves the table, as in bash
+    public static int waitFor(String[] args, PrintStream err) throws InterruptedException {
+        List<Job> waited = new ArrayList<>();
+        int status = 0;
+        if (args.length == 1) {
+            synchronized (JobTable.class) { if (CURRENT.get() == null) waited.addAll(JOBS.values()); }
+            for (Job job : waited) job.awaitStatus();
+        } else {
+            for (int i = 1; i < args.length; i++) {
+                Job job = find(args[i]);
+                if (job == null) {
+                    err.println("wait: " + args[i] + ": no such job");
+                    status = 127;
+                    continue;
+                }
+                status = job.awaitStatus();
+                waited.add(job);
+            }
+        }
+        forget(waited);
+        return status;
+    }
+
+    // without job control the shell cannot hand the terminal over; fg shows the job and waits for it
+    public static int fg(String[] args, PrintStream out, PrintStream err) throws InterruptedException {
+        String spec = args.length > 1 ? args[1] : "%+";
+        Job job = find(spec);
+        if (job == null) {
+            err.println("fg: " + (args.length > 1 ? args[1] : "current") + ": no such job");
+            return 1;
+        }
+        out.println(job.command);
+        out.flush();
+        int status = job.awaitStatus();
+        forget(List.of(job));
+        return status;
+    }
+
+    private static synchronized void forget(List<Job> jobs) {
+        for (Job job : jobs) JOBS.remove(job.id);
+    }
+
+    // %n or n, and %+ / %% / %- for the current and previous job
+    private static synchronized Job find(String spec) {
+        if (JOBS.isEmpty() || CURRENT.get() != null) return null;
+        if (spec.equals("%+") || spec.equals("%%")) return JOBS.lastEntry().getValue();
+        if (spec.equals("%-")) {
+            Integer previous = JOBS.lowerKey(JOBS.lastKey());
+            return previous == null ? null : JOBS.get(previous);
+        }
+        try {
+            return JOBS.get(Integer.parseInt(spec.startsWith("%") ? spec.substring(1) : spec));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void print(Job job, PrintStream out) {
+        int newest = JOBS.lastKey();
+        Integer previous = JOBS.lowerKey(newest);
+        char marker = job.id == newest ? '+' : previous != null && job.id == previous ? '-' : ' ';
+
+        String state;
+        if (!job.isDone()) {
+            state = "Running";
+        } else {
+            int status = job.task.state() == Future.State.SUCCESS ? job.task.resultNow() : 1;
+            state = status == 0 ? "Done" : "Exit " + status;
+        }
+        out.printf("[%d]%c  %-24s%s%s%n", job.id, marker, state, job.command, job.isDone() ? "" : " &");
+    }
+}
@@ -0,0 +1,41 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// one command line (or background job), begun by Metrics.begin and committed by Metrics.end with
+// the same numbers that go to SHELL_METRICS_FILE
+@Name("shell.CommandLine")
+@Label("Command Line")
+@Category("Shell")
+@Description("A command line from reading it to the end of its last pipeline")
+public final class CommandLineEvent extends Event {
+
+    @Label("Line")
+    String line;
+
+    @Label("Parse Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long parseTime;
+
+    @Label("PATH Lookup Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long lookupTime;
+
+    @Label("Spawn Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long spawnTime;
+
+    @Label("Processes")
+    int processes;
+
+    @Label("Bytes Piped")
+    @Description("Bytes the shell itself copied between stages and to its own streams")
+    @DataAmount
+    long bytesPiped;
+}
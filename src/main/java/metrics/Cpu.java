@@ -0,0 +1,61 @@
+package metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// CPU time from /proc/self/stat: {user, system, children's user, children's system} in clock ticks.
+// children only count once the JVM has reaped them, which is what ProcessHandle.Info cannot give
+// (a reaped child has no info left). null where /proc is missing.
+final class Cpu {
+
+    private static final Path STAT = Path.of("/proc/self/stat");
+    private static final Path AUXV = Path.of("/proc/self/auxv");
+    private static final long AT_CLKTCK = 17;
+
+    // USER_HZ, the unit of those fields: 100 on nearly every Linux kernel, but read from the
+    // process's auxiliary vector (what sysconf(_SC_CLK_TCK) returns) rather than assumed
+    private static final long TICKS_PER_SECOND = clockTicksPerSecond();
+
+    private Cpu() {}
+
+    static long millis(long ticks) {
+        return ticks * 1000 / TICKS_PER_SECOND;
+    }
+
+    static long[] ticks() {
+        String stat;
+        try {
+            stat = Files.readString(STAT);
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+        // the command name may contain spaces; fields are counted from the closing parenthesis
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        // utime, stime, cutime, cstime are fields 14-17 of stat, i.e. 11-14 after the name
+        return new long[] {
+            Long.parseLong(fields[11]), Long.parseLong(fields[12]),
+            Long.parseLong(fields[13]), Long.parseLong(fields[14])
+        };
+    }
+
+    // auxv is a list of native-word (type, value) pairs ending with type 0
+    private static long clockTicksPerSecond() {
+        try {
+            ByteBuffer auxv = ByteBuffer.wrap(Files.readAllBytes(AUXV)).order(ByteOrder.nativeOrder());
+            boolean wide = !"32".equals(System.getProperty("sun.arch.data.model"));
+            int entry = wide ? 16 : 8;
+            while (auxv.remaining() >= entry) {
+                long type = wide ? auxv.getLong() : auxv.getInt();
+                long value = wide ? auxv.getLong() : auxv.getInt();
+                if (type == 0) break;
+                if (type == AT_CLKTCK && value > 0) return value;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // no /proc: ticks() has nothing to convert either
+        }
+        return 100;
+    }
+}
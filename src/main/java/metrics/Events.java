@@ -0,0 +1,92 @@
+package metrics;
+
+import jdk.jfr.FlightRecorder;
+
+// the only way into the shell's JFR events. loading a jdk.jfr.Event subclass boots JFR's machinery
+// (hundreds of milliseconds), so no event class is touched until a recording has been started,
+// with -XX:StartFlightRecording or later with `jcmd <pid> JFR.start`. until then every factory
+// returns null and the other methods do nothing with it.
+public final class Events {
+
+    private Events() {}
+
+    public static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // call right before the stage starts
+    public static PipelineStageEvent stage(int stage, String[] args, boolean builtin) {
+        if (!recording()) return null;
+        PipelineStageEvent event = new PipelineStageEvent();
+        event.stage = stage;
+        event.command = String.join(" ", args);
+        event.builtin = builtin;
+        event.pid = -1;
+        event.begin();
+        return event;
+    }
+
+    // commits once the process exits, on the JDK's process reaper rather than whoever waits for it
+    public static void exitOf(PipelineStageEvent event, Process process) {
+        if (event == null || !event.isEnabled()) return;
+        event.pid = process.pid();
+        process.onExit().thenAccept(exited -> {
+            event.exitCode = exited.exitValue();
+            event.commit();
+        });
+    }
+
+    public static void finished(PipelineStageEvent event, int status) {
+        if (event == null) return;
+        event.exitCode = status;
+        event.commit();
+    }
+
+    public static PumpEvent pump() {
+        if (!recording()) return null;
+        PumpEvent event = new PumpEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void pumped(PumpEvent event, String pipe, long bytes, long flushes) {
+        if (event == null || !event.shouldCommit()) return;
+        event.pipe = pipe;
+        event.bytes = bytes;
+        event.flushes = flushes;
+        event.commit();
+    }
+
+    public static HistoryIoEvent historyIo(String operation, String path) {
+        if (!recording()) return null;
+        HistoryIoEvent event = new HistoryIoEvent();
+        event.operation = operation;
+        event.path = path;
+        event.begin();
+        return event;
+    }
+
+    public static void historyIoDone(HistoryIoEvent event, int entries) {
+        if (event == null) return;
+        event.entries = entries;
+        event.commit();
+    }
+
+    static CommandLineEvent commandLine() {
+        if (!recording()) return null;
+        CommandLineEvent event = new CommandLineEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commandLineDone(CommandLineEvent event, LineMetrics metrics) {
+        if (event == null || !event.shouldCommit()) return;
+        event.line = metrics.line;
+        event.parseTime = metrics.parseNanos.get();
+        event.lookupTime = metrics.lookupNanos.get();
+        event.spawnTime = metrics.spawnNanos.get();
+        event.processes = metrics.processes.get();
+        for (long bytes : metrics.pipeBytes.values()) event.bytesPiped += bytes;
+        event.commit();
+    }
+}
@@ -0,0 +1,23 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// reading or writing the history file: load, read (-r), write (-w), append (-a, exit),
+// truncate (HISTFILESIZE) and sync (HISTSHARE)
+@Name("shell.HistoryIo")
+@Label("History I/O")
+@Category("Shell")
+public final class HistoryIoEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Path")
+    String path;
+
+    @Label("Entries")
+    int entries;
+}
@@ -0,0 +1,85 @@
+package metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// what one command line cost. phases are added by whichever thread does the work (pumps finish on
+// their own threads), so the counters are atomic; wall and CPU time are filled in by Metrics.end.
+public final class LineMetrics {
+
+    final String line;
+    final long startNanos = System.nanoTime();
+    final AtomicLong parseNanos = new AtomicLong();
+    final AtomicLong lookupNanos = new AtomicLong();
+    final AtomicLong spawnNanos = new AtomicLong();
+    final AtomicInteger processes = new AtomicInteger();
+    final Map<String, Long> pipeBytes = new ConcurrentHashMap<>();
+    final CommandLineEvent event = Events.commandLine(); // null unless JFR is recording
+
+    volatile long[] cpuBefore;   // Cpu.ticks() before the first process started
+    long wallNanos;
+    long childUserMillis = -1;
+    long childSysMillis = -1;
+
+    LineMetrics(String line) {
+        this.line = line;
+    }
+
+    public void parsed(long nanos) {
+        parseNanos.addAndGet(nanos);
+    }
+
+    public void lookedUp(long nanos) {
+        lookupNanos.addAndGet(nanos);
+    }
+
+    // call right before starting processes; the first call takes the children's CPU baseline
+    public void spawning() {
+        if (cpuBefore == null) cpuBefore = Cpu.ticks();
+    }
+
+    public void spawned(int count, long nanos) {
+        processes.addAndGet(count);
+        spawnNanos.addAndGet(nanos);
+    }
+
+    // bytes the shell itself moved through one pipe, e.g. "2>" for stage 2's stdout
+    public void piped(String pipe, long bytes) {
+        pipeBytes.merge(pipe, bytes, Long::sum);
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"line\":");
+        quote(json, line);
+        json.append(",\"parse_us\":").append(parseNanos.get() / 1000)
+            .append(",\"lookup_us\":").append(lookupNanos.get() / 1000)
+            .append(",\"spawn_us\":").append(spawnNanos.get() / 1000)
+            .append(",\"wall_us\":").append(wallNanos / 1000)
+            .append(",\"processes\":").append(processes.get())
+            .append(",\"child_user_ms\":").append(childUserMillis)
+            .append(",\"child_sys_ms\":").append(childSysMillis)
+            .append(",\"pipes\":{");
+        boolean first = true;
+        for (Map.Entry<String, Long> pipe : pipeBytes.entrySet()) {
+            if (!first) json.append(',');
+            quote(json, pipe.getKey());
+            json.append(':').append(pipe.getValue());
+            first = false;
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void quote(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') json.append('\\').append(c);
+            else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+            else json.append(c);
+        }
+        json.append('"');
+    }
+}
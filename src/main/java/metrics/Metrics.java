@@ -0,0 +1,84 @@
+package metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// always-on, per command line instrumentation: Main opens a record per line on its thread (background
+// jobs open their own), the runners add parse, PATH lookup and spawn times, processes and bytes piped
+// through the shell, and end() adds wall time and the children's CPU time. the cost is a few
+// nanoTime calls plus two /proc reads for lines that start processes. with SHELL_METRICS_FILE set,
+// every record is appended to that file as one JSON object per line. under a JFR recording each
+// record is also a shell.CommandLine event.
+public final class Metrics {
+
+    private static final ThreadLocal<LineMetrics> CURRENT = new ThreadLocal<>();
+    private static final LineMetrics UNTRACKED = new LineMetrics("");
+    private static final String METRICS_FILE = System.getenv("SHELL_METRICS_FILE");
+
+    private static BufferedWriter writer; // guarded by Metrics.class
+
+    private Metrics() {}
+
+    public static LineMetrics begin(String line) {
+        LineMetrics metrics = new LineMetrics(line);
+        CURRENT.set(metrics);
+        return metrics;
+    }
+
+    // the line running on this thread; work done outside of one is recorded nowhere
+    public static LineMetrics current() {
+        LineMetrics metrics = CURRENT.get();
+        return metrics != null ? metrics : UNTRACKED;
+    }
+
+    public static void end(LineMetrics metrics) {
+        metrics.wallNanos = System.nanoTime() - metrics.startNanos;
+        long[] before = metrics.cpuBefore;
+        long[] after = before == null ? null : Cpu.ticks();
+        if (after != null) {
+            metrics.childUserMillis = Cpu.millis(after[2] - before[2]);
+            metrics.childSysMillis = Cpu.millis(after[3] - before[3]);
+        }
+        if (CURRENT.get() == metrics) CURRENT.remove();
+        Events.commandLineDone(metrics.event, metrics);
+        if (METRICS_FILE != null) append(metrics.toJson());
+    }
+
+    // `time`: a start sample, then real/user/sys in bash's format, user and sys covering the shell
+    // itself and the children it reaped in between
+    public static long[] startTiming() {
+        long[] ticks = Cpu.ticks();
+        return new long[] {System.nanoTime(), ticks == null ? 0 : ticks[0] + ticks[2], ticks == null ? 0 : ticks[1] + ticks[3]};
+    }
+
+    public static void reportTiming(long[] start, PrintStream err) {
+        long realNanos = System.nanoTime() - start[0];
+        long[] ticks = Cpu.ticks();
+        long userMillis = ticks == null ? 0 : Cpu.millis(ticks[0] + ticks[2] - start[1]);
+        long sysMillis = ticks == null ? 0 : Cpu.millis(ticks[1] + ticks[3] - start[2]);
+        err.printf("%nreal\t%s%nuser\t%s%nsys\t%s%n", minutes(realNanos / 1_000_000), minutes(userMillis), minutes(sysMillis));
+    }
+
+    private static String minutes(long millis) {
+        return String.format("%dm%d.%03ds", millis / 60_000, (millis / 1000) % 60, millis % 1000);
+    }
+
+    private static synchronized void append(String json) {
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(Path.of(METRICS_FILE), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(json);
+            writer.newLine();
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("metrics: " + METRICS_FILE + ": " + e.getMessage());
+        }
+    }
+}
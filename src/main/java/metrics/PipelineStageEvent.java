@@ -0,0 +1,32 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// one stage of a pipeline: a process from just before it was started to its exit, or an in-process
+// builtin from submission to return. a slow pipeline shows up as the stage whose event ends last.
+@Name("shell.PipelineStage")
+@Label("Pipeline Stage")
+@Category("Shell")
+@Description("A pipeline stage from start to exit")
+public final class PipelineStageEvent extends Event {
+
+    @Label("Stage")
+    @Description("1-based position in the pipeline")
+    int stage;
+
+    @Label("Command")
+    String command;
+
+    @Label("Builtin")
+    boolean builtin;
+
+    @Label("PID")
+    long pid;
+
+    @Label("Exit Code")
+    int exitCode;
+}
@@ -0,0 +1,27 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// one pump copying a process's output through the JVM, from its first read to end of stream
+@Name("shell.Pump")
+@Label("Pump")
+@Category("Shell")
+@Description("A stream copied by the shell from one stage to the next or to its own output")
+public final class PumpEvent extends Event {
+
+    @Label("Pipe")
+    @Description("The stream in metrics notation, e.g. \"2>\" for stage 2's stdout")
+    String pipe;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Flushes")
+    long flushes;
+}
@@ -0,0 +1,15 @@
+package parse;
+
+import java.util.List;
+
+// a whole input line: pipelines separated by ';', '&', newlines, '&&' and '||', in order
+public final class CommandList {
+
+    public final List<Pipeline> pipelines;
+    public final List<HereDocument> hereDocuments; // in the order their bodies follow the line
+
+    public CommandList(List<Pipeline> pipelines, List<HereDocument> hereDocuments) {
+        this.pipelines = pipelines;
+        this.hereDocuments = hereDocuments;
+    }
+}
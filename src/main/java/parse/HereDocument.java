@@ -0,0 +1,138 @@
+package parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+// the stdin of `cmd <<EOF`, `cmd <<-EOF` or `cmd <<< word`. the parser only sees the operator; the
+// body is the lines that follow the command line, up to the delimiter, and the shell reads them from
+// its input once the line is parsed. a body is kept as UTF-8 chunks of about CHUNK_CHARS, never as one
+// String, and may also be streamed: the lines are then pulled from the input while the command reads
+// its stdin, and whatever it leaves unread is skipped by drain() before the next command line.
+public final class HereDocument {
+
+    // where the body lines come from: the script, the -c string or the interactive "> " prompt
+    public interface LineSource {
+        // the next line without its line break, or null at end of input
+        String readLine() throws IOException;
+    }
+
+    private static final int CHUNK_CHARS = 16 * 1024;
+
+    private final String delimiter;    // null for a here-string
+    private final boolean stripTabs;   // <<- drops leading tabs from the body and the delimiter line
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>(); // guarded by this
+    private LineSource source;         // set while the body is streamed
+    private boolean ended;             // the delimiter (or the end of input) was read
+    private boolean unterminated;
+    private boolean opened;
+
+    HereDocument(String delimiter, boolean stripTabs) {
+        this.delimiter = delimiter;
+        this.stripTabs = stripTabs;
+    }
+
+    // `<<< word`: the word and a newline
+    static HereDocument ofString(String word) {
+        HereDocument doc = new HereDocument(null, false);
+        doc.chunks.add((word + "\n").getBytes(StandardCharsets.UTF_8));
+        doc.ended = true;
+        return doc;
+    }
+
+    public String delimiter() {
+        return delimiter;
+    }
+
+    // the input ended before the delimiter line; bash warns and uses what it got
+    public synchronized boolean unterminated() {
+        return unterminated;
+    }
+
+    // reads the whole body now
+    public synchronized void readBody(LineSource lines) throws IOException {
+        while (!ended) {
+            byte[] chunk = nextChunk(lines);
+            if (chunk != null) chunks.add(chunk);
+        }
+    }
+
+    // the body is read from `lines` as the command consumes it; call drain() once the command is done
+    public synchronized void streamFrom(LineSource lines) {
+        if (!ended) source = lines;
+    }
+
+    // skips the part of a streamed body the command did not read, so the next line starts after the delimiter
+    public synchronized void drain() throws IOException {
+        if (source == null) return;
+        LineSource lines = source;
+        source = null;
+        while (!ended) nextChunk(lines);
+    }
+
+    // the body as a stream, once; reads past what is buffered pull the next lines of a streamed body
+    public synchronized InputStream open() {
+        if (opened) throw new IllegalStateException("here-document already read");
+        opened = true;
+        return new InputStream() {
+            private byte[] chunk = new byte[0];
+            private int pos;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                synchronized (HereDocument.this) {
+                    while (pos == chunk.length) {
+                        byte[] next = chunks.poll();
+                        if (next == null && source != null && !ended) next = nextChunk(source);
+                        if (next == null) {
+                            if (ended || source == null) return -1;
+                            continue;
+                        }
+                        chunk = next;
+                        pos = 0;
+                    }
+                    int n = Math.min(len, chunk.length - pos);
+                    System.arraycopy(chunk, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+            }
+
+            @Override
+            public int available() {
+                return chunk.length - pos;
+            }
+        };
+    }
+
+    // the next lines of the body, up to CHUNK_CHARS of them; null when the delimiter came first
+    private byte[] nextChunk(LineSource lines) throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (!ended && text.length() < CHUNK_CHARS) {
+            String line = lines.readLine();
+            if (line == null) {
+                ended = unterminated = true;
+                break;
+            }
+            if (stripTabs) {
+                int tabs = 0;
+                while (tabs < line.length() && line.charAt(tabs) == '\t') tabs++;
+                line = line.substring(tabs);
+            }
+            if (line.equals(delimiter)) {
+                ended = true;
+                break;
+            }
+            text.append(line).append('\n');
+        }
+        return text.length() == 0 ? null : text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -8,6 +8,8 @@ public final class ParsedCommand {
     public final boolean appendStderr;
     public final String redirectFile;
     public final String stderrFile;
+    public final HereDocument stdin; // `<<EOF` or `<<< word`, otherwise null
+    public final Word[] words;        // per argument, the ones with command substitutions; null when there are none
 
     public ParsedCommand(
             String[] args,
@@ -17,6 +19,20 @@ public final class ParsedCommand {
             boolean appendStderr,
             String redirectFile,
             String stderrFile
+    ) {
+        this(args, redirectStdout, redirectStderr, appendStdout, appendStderr, redirectFile, stderrFile, null, null);
+    }
+
+    public ParsedCommand(
+            String[] args,
+            boolean redirectStdout,
+            boolean redirectStderr,
+            boolean appendStdout,
+            boolean appendStderr,
+            String redirectFile,
+            String stderrFile,
+            HereDocument stdin,
+            Word[] words
     ) {
         this.args = args;
         this.redirectStdout = redirectStdout;
@@ -25,5 +41,7 @@ public final class ParsedCommand {
         this.appendStderr = appendStderr;
         this.redirectFile = redirectFile;
         this.stderrFile = stderrFile;
+        this.stdin = stdin;
+        this.words = words;
     }
 }
@@ -1,141 +1,357 @@
 package parse;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+// one left-to-right pass over the line. the lexer records every token as a span (kind, start, end)
+// in int arrays that are reused from call to call, so quotes, escapes and operators are looked at
+// exactly once; words only become Strings when the AST is built, straight from the input when they
+// contain no quotes or backslashes.
+//
+//   list      := pipeline ((';' | '&' | '&&' | '||' | newline) pipeline)* ['&']
+//   pipeline  := command ('|' command)*
+//   command   := (word | redirect)+
+//   redirect  := ('>' | '>>' | '1>' | '1>>' | '2>' | '2>>' | '<<' | '<<-' | '<<<') word
+//
+// a word may hold command substitutions, $(...) or `...`; the lexer only finds where they end, and
+// such an argument is kept as a Word (ParsedCommand.words) that the shell expands when the command runs.
+// a here-document's body follows the line it is on; the parser only records the delimiter, in
+// CommandList.hereDocuments, and the caller reads the bodies in that order.
+//
+// reuses its buffers, so one Parser must not be shared between threads.
 public class Parser {
 
-    public ParsedCommand parseCommand(String input){
-        List<String> parts = new ArrayList<>();
-        StringBuilder currentPart = new StringBuilder();
-        boolean insideSingleQuote = false;
-        boolean insideDoubleQuote = false;
-        boolean redirectStdout = false;
-        String redirectFile = null;
-        boolean redirectStderr = false;
-        String stderrFile = null;
-        boolean appendStdout = false;
-        boolean appendStderr = false; 
-
-        for(int i= 0; i < input.length(); i++){
-            char c = input.charAt(i);
+    private static final int PLAIN_WORD = 0;   // no quotes or escapes: the span is the value
+    private static final int QUOTED_WORD = 1;
+    private static final int SUBSTITUTION_WORD = 2;
+    private static final int PIPE = 3;
+    private static final int AND = 4;
+    private static final int OR = 5;
+    private static final int SEMI = 6;
+    private static final int NEWLINE = 7;
+    private static final int BACKGROUND = 8;
+    private static final int OUT = 9;
+    private static final int OUT_APPEND = 10;
+    private static final int ERR = 11;
+    private static final int ERR_APPEND = 12;
+    private static final int HEREDOC = 13;
+    private static final int HEREDOC_STRIP = 14;
+    private static final int HERESTRING = 15;
 
-            if(c == '\''){
-                if(insideDoubleQuote) {
-                    currentPart.append(c);
-                    continue;
+    private int[] kinds = new int[32];
+    private int[] starts = new int[32];
+    private int[] ends = new int[32];
+    private int count;
+
+    private String[] args = new String[16];
+    private Word[] words = new Word[16]; // the arguments that hold substitutions, null elsewhere
+    private final StringBuilder scratch = new StringBuilder();
+    private boolean incomplete;
+
+    public CommandList parse(String input) {
+        incomplete = false;
+        try { lex(input); }
+        catch (IllegalArgumentException e) { incomplete = true; throw e; } // an open $( or `
+
+        List<Pipeline> pipelines = new ArrayList<>();
+        List<ParsedCommand> stages = new ArrayList<>();
+        List<HereDocument> hereDocuments = new ArrayList<>();
+        Pipeline.RunIf runIf = Pipeline.RunIf.ALWAYS;
+        int pipelineStart = -1;
+
+        int argc = 0;
+        boolean redirectStdout = false, redirectStderr = false, appendStdout = false, appendStderr = false;
+        String redirectFile = null, stderrFile = null;
+        HereDocument stdin = null;
+        boolean substituted = false;
+        boolean inCommand = false;
+
+        for (int t = 0; t <= count; t++) {
+            int kind = t < count ? kinds[t] : NEWLINE;
+
+            if (pipelineStart < 0 && kind != NEWLINE) pipelineStart = starts[t];
+
+            if (kind <= SUBSTITUTION_WORD) {
+                if (argc == args.length) {
+                    args = Arrays.copyOf(args, argc * 2);
+                    words = Arrays.copyOf(words, argc * 2);
                 }
-                insideSingleQuote = !insideSingleQuote;
+                if (kind == SUBSTITUTION_WORD) {
+                    // stands in for the word until it is expanded
+                    args[argc] = input.substring(starts[t], ends[t]);
+                    words[argc++] = template(input, t);
+                    substituted = true;
+                } else {
+                    args[argc++] = word(input, t);
+                }
+                inCommand = true;
                 continue;
             }
 
-            if(c == '"' && !insideSingleQuote){
-                insideDoubleQuote = !insideDoubleQuote;
+            if (kind >= OUT) {
+                if (t + 1 >= count || kinds[t + 1] > SUBSTITUTION_WORD) throw unexpected(input, t + 1);
+                if (kinds[t + 1] == SUBSTITUTION_WORD) {
+                    throw new IllegalArgumentException("command substitution is not supported after `" + input.substring(starts[t], ends[t]) + "'");
+                }
+                String operand = word(input, ++t);
+                if (kind == OUT || kind == OUT_APPEND) {
+                    redirectStdout = true;
+                    appendStdout = kind == OUT_APPEND;
+                    redirectFile = operand;
+                } else if (kind == ERR || kind == ERR_APPEND) {
+                    redirectStderr = true;
+                    appendStderr = kind == ERR_APPEND;
+                    stderrFile = operand;
+                } else if (kind == HERESTRING) {
+                    stdin = HereDocument.ofString(operand);
+                } else {
+                    // the delimiter is the word with its quotes removed; the last '<<' of a command wins
+                    stdin = new HereDocument(operand, kind == HEREDOC_STRIP);
+                    hereDocuments.add(stdin);
+                }
+                inCommand = true;
                 continue;
             }
 
-            if (!insideDoubleQuote && !insideSingleQuote && (c == '2' && i + 1 < input.length() && input.charAt(i + 1) == '>')){
-                redirectStderr = true;
-                 // skip '>'
-                if (currentPart.length() > 0) {
-                    parts.add(currentPart.toString());
-                    currentPart.setLength(0);
-                }
+            // an operator ends the current command
+            if (!inCommand) {
+                // newlines may follow '|', '&&' and '||', and blank lines are fine; the line may not
+                // end right after one of those, and no other operator may stand without a command
+                boolean lineBreak = kind == NEWLINE && t < count;
+                boolean lineEnd = t == count && stages.isEmpty() && runIf == Pipeline.RunIf.ALWAYS;
+                if (lineBreak || lineEnd) continue;
+                incomplete = t == count;
+                throw unexpected(input, t);
+            }
 
-                i++;
-                i++;
-                if (i < input.length() && input.charAt(i) == '>') {
-                    appendStderr = true;
-                    i++; // skip second '>'
-                }
-                
-                while (i < input.length() && input.charAt(i) == ' ') i++;
+            stages.add(new ParsedCommand(Arrays.copyOf(args, argc), redirectStdout, redirectStderr,
+                    appendStdout, appendStderr, redirectFile, stderrFile, stdin, substituted ? Arrays.copyOf(words, argc) : null));
+            if (substituted) Arrays.fill(words, 0, argc, null);
+            substituted = false;
+            argc = 0;
+            redirectStdout = redirectStderr = appendStdout = appendStderr = false;
+            redirectFile = stderrFile = null;
+            stdin = null;
+            inCommand = false;
 
-                StringBuilder file = new StringBuilder();
-                while (i < input.length() && input.charAt(i) != ' ') {
-                    file.append(input.charAt(i));
-                    i++;
-                }
+            if (kind == PIPE) continue;
 
-                stderrFile = file.toString();
-                break;
+            String text = input.substring(pipelineStart, ends[t - 1]);
+            pipelines.add(new Pipeline(stages, runIf, kind == BACKGROUND, text));
+            stages = new ArrayList<>();
+            pipelineStart = -1;
+            runIf = kind == AND ? Pipeline.RunIf.ON_SUCCESS
+                  : kind == OR ? Pipeline.RunIf.ON_FAILURE
+                  : Pipeline.RunIf.ALWAYS;
+        }
 
-                
-            }
-            if (!insideSingleQuote && !insideDoubleQuote &&
-                    (c == '>' || (c == '1' && i + 1 < input.length() && input.charAt(i + 1) == '>'))) {
+        return new CommandList(pipelines, hereDocuments);
+    }
 
-                redirectStdout = true;
-                if (c == '1') i++;
+    // whether the last parse failed only because the input ended after '|', '&&' or '||' or inside a
+    // substitution; the caller may append a newline and the next line and parse again
+    public boolean incomplete() {
+        return incomplete;
+    }
 
-                if (i + 1 < input.length() && input.charAt(i + 1) == '>') {
-                appendStdout = true;
-                i++; // skip second '>'
-                }
+    // the first command of the line, ignoring whatever follows it
+    public ParsedCommand parseCommand(String input) {
+        CommandList list = parse(input);
+        if (list.pipelines.isEmpty()) {
+            return new ParsedCommand(new String[0], false, false, false, false, null, null);
+        }
+        return list.pipelines.get(0).commands.get(0);
+    }
 
-                if (currentPart.length() > 0) {
-                    parts.add(currentPart.toString());
-                    currentPart.setLength(0);
-                }
+    private void lex(String input) {
+        count = 0;
+        int n = input.length();
+        int i = 0;
+        while (i < n) {
+            char c = input.charAt(i);
+            char next = i + 1 < n ? input.charAt(i + 1) : 0;
 
-                i++;
-                while (i < input.length() && input.charAt(i) == ' ') i++;
+            if (c == ' ' || c == '\t' || c == '\r') { i++; continue; }
+            if (c == '\n') { add(NEWLINE, i, ++i); continue; }
+            if (c == ';') { add(SEMI, i, ++i); continue; }
+            if (c == '|') {
+                if (next == '|') { add(OR, i, i += 2); } else { add(PIPE, i, ++i); }
+                continue;
+            }
+            if (c == '&') {
+                if (next == '&') { add(AND, i, i += 2); } else { add(BACKGROUND, i, ++i); }
+                continue;
+            }
+            if (c == '>' || ((c == '1' || c == '2') && next == '>')) {
+                int start = i;
+                boolean stderr = c == '2';
+                i += c == '>' ? 1 : 2;
+                boolean append = i < n && input.charAt(i) == '>';
+                if (append) i++;
+                add(stderr ? (append ? ERR_APPEND : ERR) : (append ? OUT_APPEND : OUT), start, i);
+                continue;
+            }
+            if (c == '<' && next == '<') {
+                int start = i;
+                i += 2;
+                char after = i < n ? input.charAt(i) : 0;
+                if (after == '<' || after == '-') i++;
+                add(after == '<' ? HERESTRING : after == '-' ? HEREDOC_STRIP : HEREDOC, start, i);
+                continue;
+            }
 
-                StringBuilder file = new StringBuilder();
-                while (i < input.length() && input.charAt(i) != ' ') {
-                    file.append(input.charAt(i));
+            // a word runs until an unquoted blank or operator
+            int start = i;
+            boolean plain = true;
+            boolean substitution = false;
+            char quote = 0;
+            while (i < n) {
+                c = input.charAt(i);
+                if (quote != '\'' && (c == '`' || (c == '$' && i + 1 < n && input.charAt(i + 1) == '('))) {
+                    i = c == '`' ? backquoteEnd(input, i + 1) : substitutionEnd(input, i + 2);
+                    substitution = true;
+                    continue;
+                }
+                if (quote != 0) {
+                    if (c == quote) quote = 0;
+                    else if (c == '\\' && quote == '"') i++;
                     i++;
+                    continue;
                 }
-
-                redirectFile = file.toString();
-                break;
+                if (c == '\'' || c == '"') { quote = c; plain = false; i++; continue; }
+                if (c == '\\') { plain = false; i += 2; continue; }
+                if (c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == ';' || c == '|' || c == '&' || c == '>') break;
+                if (c == '<' && i + 1 < n && input.charAt(i + 1) == '<') break;
+                i++;
             }
+            if (i > n) i = n;
+            add(substitution ? SUBSTITUTION_WORD : plain ? PLAIN_WORD : QUOTED_WORD, start, i);
+        }
+    }
 
-            
-
-            // basically check / escape character
-            if(c == '\\'){
-                if(i + 1 < input.length()){
-                    char nextChar = input.charAt(i + 1);
-                    if(insideSingleQuote || (insideDoubleQuote && (nextChar != '"' && nextChar != '\\'))){
-                        currentPart.append(c);
-                    } else {
-                        currentPart.append(nextChar);
-                        i++; // skip next char as its escaped
-                        continue;
-                    }
-                } else {
-                    currentPart.append(c);
-                }
-                continue;
+    // just past the ')' that closes a `$(` opened before `from`; quoted parentheses do not count
+    private static int substitutionEnd(String input, int from) {
+        int depth = 1;
+        char quote = 0;
+        for (int i = from; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+                else if (c == '\\' && quote == '"') i++;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '\\') {
+                i++;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
             }
+        }
+        throw new IllegalArgumentException("unexpected EOF while looking for matching `)'");
+    }
 
-            if(c == ' ' && !insideSingleQuote && !insideDoubleQuote){
-                if(currentPart.length() > 0){
-                    parts.add(currentPart.toString());
-                    currentPart.setLength(0);
-                }
+    // just past the backquote that closes one opened before `from`
+    private static int backquoteEnd(String input, int from) {
+        for (int i = from; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '`') return i + 1;
+        }
+        throw new IllegalArgumentException("unexpected EOF while looking for matching ``'");
+    }
+
+    private void add(int kind, int start, int end) {
+        if (count == kinds.length) {
+            kinds = Arrays.copyOf(kinds, count * 2);
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        kinds[count] = kind;
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    // single quotes keep everything; inside double quotes a backslash only escapes '"' and '\';
+    // outside quotes it escapes any character. an unterminated quote runs to the end of the line.
+    private String word(String input, int t) {
+        int from = starts[t];
+        int to = ends[t];
+        if (kinds[t] == PLAIN_WORD) return input.substring(from, to);
+
+        scratch.setLength(0);
+        char quote = 0;
+        for (int i = from; i < to; i++) {
+            char c = input.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') quote = 0; else scratch.append(c);
+            } else if (quote == '"') {
+                if (c == '"') quote = 0;
+                else if (c == '\\' && i + 1 < to && (input.charAt(i + 1) == '"' || input.charAt(i + 1) == '\\')) scratch.append(input.charAt(++i));
+                else scratch.append(c);
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '\\' && i + 1 < to) {
+                scratch.append(input.charAt(++i));
             } else {
-                currentPart.append(c);
+                scratch.append(c);
             }
-
-            
         }
-        // TO DO: implement parsing logic to handle quotes and escapes
+        return scratch.toString();
+    }
 
-        if(currentPart.length() > 0){
-            parts.add(currentPart.toString());
+    // like word(), but the substitutions are kept apart as commands. inside backquotes a backslash
+    // escapes '\', '`' and '$' (and '"' when the backquotes are inside double quotes)
+    private Word template(String input, int t) {
+        Word word = new Word();
+        int to = ends[t];
+        scratch.setLength(0);
+        boolean quoted = false; // the pending literal text had quotes
+        char quote = 0;
+        for (int i = starts[t]; i < to; i++) {
+            char c = input.charAt(i);
+            if (quote != '\'' && (c == '`' || (c == '$' && i + 1 < to && input.charAt(i + 1) == '('))) {
+                word.literal(scratch.toString(), quoted);
+                scratch.setLength(0);
+                quoted = false;
+                if (c == '$') {
+                    int end = substitutionEnd(input, i + 2);
+                    word.command(input.substring(i + 2, end - 1), quote == '"');
+                    i = end - 1;
+                } else {
+                    int end = backquoteEnd(input, i + 1);
+                    StringBuilder command = new StringBuilder();
+                    for (int j = i + 1; j < end - 1; j++) {
+                        char b = input.charAt(j);
+                        char escaped = j + 1 < end - 1 ? input.charAt(j + 1) : 0;
+                        if (b == '\\' && (escaped == '\\' || escaped == '`' || escaped == '$' || (escaped == '"' && quote == '"'))) b = input.charAt(++j);
+                        command.append(b);
+                    }
+                    word.command(command.toString(), quote == '"');
+                    i = end - 1;
+                }
+            } else if (quote == '\'') {
+                if (c == '\'') quote = 0; else scratch.append(c);
+            } else if (quote == '"') {
+                if (c == '"') quote = 0;
+                else if (c == '\\' && i + 1 < to && (input.charAt(i + 1) == '"' || input.charAt(i + 1) == '\\')) scratch.append(input.charAt(++i));
+                else scratch.append(c);
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                quoted = true;
+            } else if (c == '\\' && i + 1 < to) {
+                scratch.append(input.charAt(++i));
+            } else {
+                scratch.append(c);
+            }
         }
+        word.literal(scratch.toString(), quoted);
+        return word;
+    }
 
-    
-        return new ParsedCommand(  
-            parts.toArray(new String[0]),
-            redirectStdout,
-            redirectStderr,
-            appendStdout,
-            appendStderr,
-            redirectFile,
-            stderrFile
-
-        );
+    private IllegalArgumentException unexpected(String input, int t) {
+        String token = t >= count || kinds[t] == NEWLINE ? "newline" : input.substring(starts[t], ends[t]);
+        return new IllegalArgumentException("syntax error near unexpected token `" + token + "'");
     }
 }
@@ -0,0 +1,22 @@
+package parse;
+
+import java.util.List;
+
+// commands joined by '|', plus when it runs relative to the previous pipeline of the list
+// and whether it was started with '&'
+public final class Pipeline {
+
+    public enum RunIf { ALWAYS, ON_SUCCESS, ON_FAILURE }
+
+    public final List<ParsedCommand> commands;
+    public final RunIf runIf;
+    public final boolean background;
+    public final String text; // the source text, for job listings
+
+    public Pipeline(List<ParsedCommand> commands, RunIf runIf, boolean background, String text) {
+        this.commands = commands;
+        this.runIf = runIf;
+        this.background = background;
+        this.text = text;
+    }
+}
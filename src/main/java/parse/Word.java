@@ -0,0 +1,64 @@
+package parse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// a word holding command substitutions, `a$(cmd)b` or "`cmd`": its literal text (quotes already
+// removed) and the commands, in order. the shell runs the commands, then fields() puts their output
+// in place; output outside double quotes is split on blanks and newlines, as sh does.
+public final class Word {
+
+    private record Part(String text, boolean command, boolean quoted) {}
+
+    private final List<Part> parts = new ArrayList<>();
+    private final List<String> commands = new ArrayList<>();
+
+    Word() {}
+
+    void literal(String text, boolean quoted) {
+        if (!text.isEmpty() || quoted) parts.add(new Part(text, false, quoted));
+    }
+
+    void command(String text, boolean quoted) {
+        parts.add(new Part(text, true, quoted));
+        commands.add(text);
+    }
+
+    public List<String> commands() {
+        return commands;
+    }
+
+    // `outputs` holds one entry per command; a word that comes out empty disappears unless it had quotes
+    public List<String> fields(List<String> outputs) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean keep = false; // the field has quoted text, so it stays even when empty
+        int next = 0;
+        for (Part part : parts) {
+            String text = part.command ? outputs.get(next++) : part.text;
+            if (!part.command || part.quoted) {
+                field.append(text);
+                keep |= part.quoted;
+                continue;
+            }
+            int i = 0;
+            int n = text.length();
+            while (i < n) {
+                int start = i;
+                while (i < n && !isBlank(text.charAt(i))) i++;
+                field.append(text, start, i);
+                if (i == n) break;
+                if (field.length() > 0 || keep) fields.add(field.toString());
+                field.setLength(0);
+                keep = false;
+                while (i < n && isBlank(text.charAt(i))) i++;
+            }
+        }
+        if (field.length() > 0 || keep) fields.add(field.toString());
+        return fields;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\n';
+    }
+}
@@ -0,0 +1,30 @@
+package pipes;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+
+// a builtin's `>`/`>>` target. buffered like a pipe stage, and it hands out its FileChannel so
+// builtins can move whole files with transferTo instead of copying through the heap.
+public final class FileSink extends PrintStream {
+
+    private final FileOutputStream file;
+
+    FileSink(File target, boolean append) throws FileNotFoundException {
+        this(new FileOutputStream(target, append));
+    }
+
+    private FileSink(FileOutputStream file) {
+        super(new BufferedOutputStream(file, Pumps.bufferSize()), false);
+        this.file = file;
+    }
+
+    // flushes what was printed so far, so channel writes land after it
+    public FileChannel channel() {
+        flush();
+        return file.getChannel();
+    }
+}
@@ -0,0 +1,122 @@
+package pipes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// the bounded in-memory pipe between two in-process stages. unlike PipedInputStream, whose reader
+// only notices new bytes on a writer notify or its once-a-second poll, every write wakes the reader,
+// so `builtin | head -n 1` sees the first line at once. a ReentrantLock rather than monitors keeps
+// the virtual threads of the stages from pinning their carriers while they wait.
+final class MemoryPipe {
+
+    private final byte[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final Condition writable = lock.newCondition();
+    private int head;  // next byte to read
+    private int size;  // bytes buffered
+    private boolean writerClosed;
+    private boolean readerClosed;
+
+    final InputStream source = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            lock.lock();
+            try {
+                while (size == 0) {
+                    if (writerClosed || readerClosed) return -1;
+                    await(readable);
+                }
+                int n = Math.min(len, Math.min(size, ring.length - head));
+                System.arraycopy(ring, head, b, off, n);
+                head = (head + n) % ring.length;
+                size -= n;
+                writable.signal();
+                return n;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try { return size; }
+            finally { lock.unlock(); }
+        }
+
+        // the writer's next write fails, as with a broken pipe
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                readerClosed = true;
+                writable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    };
+
+    final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            lock.lock();
+            try {
+                while (len > 0) {
+                    while (size == ring.length && !readerClosed) await(writable);
+                    if (readerClosed) throw new IOException("Broken pipe");
+                    int tail = (head + size) % ring.length;
+                    int n = Math.min(len, Math.min(ring.length - size, ring.length - tail));
+                    System.arraycopy(b, off, ring, tail, n);
+                    size += n;
+                    off += n;
+                    len -= n;
+                    readable.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                writerClosed = true;
+                readable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    };
+
+    MemoryPipe(int capacity) {
+        ring = new byte[capacity];
+    }
+
+    private static void await(Condition condition) throws InterruptedIOException {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
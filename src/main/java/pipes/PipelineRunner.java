@@ -1,184 +1,329 @@
 package pipes;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import metrics.LineMetrics;
+import metrics.Events;
+import metrics.Metrics;
+import metrics.PipelineStageEvent;
 import parse.ParsedCommand;
-import parse.Parser;
 
 // a good read for pipes and forks https://beej.us/guide/bgipc/
 public class PipelineRunner {
 
     //callback via interface
     public interface BullitinRunner {
-        void run(ParsedCommand parsedCommand, PrintStream out, PrintStream err) throws IOException;
+        // returns the builtin's exit status
+        int run(ParsedCommand parsedCommand, PrintStream out, PrintStream err) throws IOException;
         boolean isShellBuiltin(String commandName);
 
+        // whether this stage runs in process; builtins that fork for some arguments override this
+        default boolean runsInProcess(ParsedCommand parsedCommand) {
+            return isShellBuiltin(parsedCommand.args[0]);
+        }
+
+        // builtins that consume stdin override this; the rest ignore their input
+        default int run(ParsedCommand parsedCommand, InputStream in, PrintStream out, PrintStream err) throws IOException {
+            return run(parsedCommand, out, err);
+        }
     }
 
-    private static Thread pump(InputStream in, OutputStream out, boolean closeOut) {
-        Thread thread = new Thread(() -> {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
+    // room for one whole chunk of the in-process coreutils, so a writer rarely waits on a half-empty pipe
+    private static final int BUILTIN_PIPE_SIZE = Math.max(Pumps.bufferSize(), 64 * 1024);
+
+    // told about a pipeline's processes once all of them have started (background jobs track them)
+    public interface ProcessListener {
+        void started(List<Process> processes);
+    }
+
+    // runs a builtin stage alongside the rest of the pipeline on a virtual thread. when it returns,
+    // closing `out` signals EOF downstream and closing `in` breaks the pipe for whatever feeds it.
+    // a stage without words (only redirects, or a substitution that expanded to nothing) runs here
+    // too: opening its redirects has created the files, and it succeeds with no output.
+    private static Future<Integer> runBuiltin(BullitinRunner builtinRunner, int stage, ParsedCommand pc, InputStream in,
+                                        PrintStream out, PrintStream err, boolean closeOut, boolean closeErr) {
+        PipelineStageEvent event = Events.stage(stage, pc.args, true);
+        return Pumps.submit(() -> {
+            int status = 1;
             try {
-                while ((bytesRead = in.read(buffer)) != -1) {
-                    out.write(buffer, 0, bytesRead);
-                    out.flush();
-                }
-            } catch (IOException ignored) {
+                status = pc.args.length == 0 ? 0 : builtinRunner.run(pc, in, out, err);
+                return status;
+            } catch (IOException e) {
+                err.println(pc.args[0] + ": " + e.getMessage());
+                return 1;
             } finally {
+                out.flush();
+                err.flush();
+                if (closeOut) out.close();
+                if (closeErr) err.close();
                 try { in.close(); } catch (IOException ignored) {}
-                if (closeOut) {
-                    try { out.close(); } catch (IOException ignored) {}
-                }
+                Events.finished(event, status);
             }
         });
-        thread.start();
-        return thread;
     }
 
-    public static void run(String input, PrintStream out, PrintStream err, BullitinRunner builtinRunner, Parser parser) throws Exception {
-        String[] segments = input.split("\\|");
+    // every stage is either a process or an in-process builtin. consecutive processes are joined by
+    // OS pipes; a builtin reads the previous process's stdout / writes the next process's stdin
+    // directly, and two adjacent builtins share a bounded in-memory pipe. a stage with a here-document
+    // reads it instead of the pipe, whose writer then sees a broken pipe, as in sh; a stage whose stdout
+    // is redirected writes the file and the next stage reads empty input. returns the last stage's status.
+    public static int run(List<ParsedCommand> commands, PrintStream out, PrintStream err, BullitinRunner builtinRunner) throws Exception {
+        return run(commands, out, err, builtinRunner, processes -> {});
+    }
 
-        if (segments.length == 2) {
-            runTwoCommands(input, out, err, builtinRunner, parser);
-            return;
+    public static int run(List<ParsedCommand> commands, PrintStream out, PrintStream err, BullitinRunner builtinRunner,
+                          ProcessListener listener) throws Exception {
+        int n = commands.size();
+        boolean[] builtin = new boolean[n];
+        boolean allExternal = true;
+        for (int i = 0; i < n; i++) {
+            builtin[i] = commands.get(i).args.length == 0 || builtinRunner.runsInProcess(commands.get(i));
+            allExternal &= !builtin[i] && (i == 0 || pipesInto(commands, i - 1));
         }
-    
-        List<ParsedCommand> commands = new ArrayList<>();
-        for (String seg : segments) {
-            ParsedCommand pc = parser.parseCommand(seg.trim());
-            if (pc.args.length == 0) return;
-            commands.add(pc);
+
+        if (allExternal) {
+            return runExternal(commands, out, err, listener);
         }
 
-        List<Process> processes = new ArrayList<>();
-        for (ParsedCommand pc : commands) {
-            ProcessBuilder pb = new ProcessBuilder(pc.args);
-            pb.directory(new File(System.getProperty("user.dir")));
-            processes.add(pb.start());
+        Process[] processes = new Process[n];
+        List<Future<?>> pumps = new ArrayList<>();
+        out.flush();
+        err.flush();
+        try {
+            for (int start = 0; start < n; ) {
+                if (builtin[start]) { start++; continue; }
+                int end = start;
+                while (end + 1 < n && !builtin[end + 1] && pipesInto(commands, end)) end++;
+
+                startRun(commands, start, end, processes, out, err, pumps);
+                feedStdin(commands, start, processes[start], pumps);
+                if (start > 0 && !builtin[start - 1]) processes[start - 1].getInputStream().close();
+                start = end + 1;
+            }
+        } catch (IOException e) {
+            for (Process process : processes) {
+                if (process != null) process.destroy();
+            }
+            throw e;
         }
+        List<Process> started = new ArrayList<>();
+        for (Process process : processes) {
+            if (process != null) started.add(process);
+        }
+        listener.started(started);
+
+        List<Future<Integer>> stages = new ArrayList<>();
+        InputStream pipeIn = InputStream.nullInputStream();
+        for (int i = 0; i < n; i++) {
+            if (!builtin[i]) continue;
+
+            ParsedCommand pc = commands.get(i);
+            InputStream in = (i > 0 && !builtin[i - 1]) ? new CountedInput(processes[i - 1].getInputStream(), i + ">") : pipeIn;
+            if (pc.stdin != null) {
+                in.close();
+                in = pc.stdin.open();
+            }
 
-    
-        List<Thread> threads = new ArrayList<>();
+            PrintStream stageOut;
+            if (i == n - 1 || pc.redirectStdout) {
+                stageOut = Redirects.stdoutFor(pc, out);
+                pipeIn = InputStream.nullInputStream();
+            } else if (commands.get(i + 1).stdin != null) {
+                // nothing reads this stage's output
+                OutputStream closed = OutputStream.nullOutputStream();
+                closed.close();
+                stageOut = new PrintStream(closed);
+                pipeIn = InputStream.nullInputStream();
+            } else if (builtin[i + 1]) {
+                MemoryPipe next = new MemoryPipe(BUILTIN_PIPE_SIZE);
+                stageOut = new PrintStream(new CountedOutput(next.sink, (i + 1) + ">"));
+                pipeIn = next.source;
+            } else {
+                OutputStream stdin = new CountedOutput(processes[i + 1].getOutputStream(), (i + 1) + ">");
+                stageOut = new PrintStream(new BufferedOutputStream(stdin, Pumps.bufferSize()));
+            }
+            PrintStream stageErr = Redirects.stderrFor(pc, err);
 
-        for (int i = 0; i < processes.size() - 1; i++) {
-            Process a = processes.get(i);
-            Process b = processes.get(i + 1);
-            threads.add(pump(a.getInputStream(), b.getOutputStream(), true));
+            stages.add(runBuiltin(builtinRunner, i + 1, pc, in, stageOut, stageErr, stageOut != out, stageErr != err));
         }
 
+        int status = 0;
+        for (Future<Integer> stage : stages) {
+            status = statusOf(stage);
+        }
         for (Process process : processes) {
-            threads.add(pump(process.getErrorStream(), err, false));
+            if (process != null) process.waitFor();
         }
+        for (Future<?> pump : pumps) {
+            Pumps.await(pump);
+        }
+        return builtin[n - 1] ? status : processes[n - 1].exitValue();
+    }
 
-        Process lastProcess = processes.get(processes.size() - 1);
-        threads.add(pump(lastProcess.getInputStream(), out, false));
+    private static int statusOf(Future<Integer> stage) throws InterruptedException {
+        try {
+            return stage.get();
+        } catch (ExecutionException e) {
+            return 1;
+        }
+    }
 
-        processes.get(0).getOutputStream().close();
+    // whether stage i's stdout is the next stage's stdin; a `>` on it or a here-document after it cuts the pipe
+    private static boolean pipesInto(List<ParsedCommand> commands, int i) {
+        return !commands.get(i).redirectStdout && commands.get(i + 1).stdin == null;
+    }
 
+    // starts stages [start, end] as one OS-level pipeline; its last stdout stays a pipe unless it ends the line
+    // or is redirected
+    private static void startRun(List<ParsedCommand> commands, int start, int end, Process[] processes,
+                                 PrintStream out, PrintStream err, List<Future<?>> pumps) throws IOException {
+        File cwd = new File(System.getProperty("user.dir"));
+        boolean endsLine = end == commands.size() - 1;
+
+        List<ProcessBuilder> builders = new ArrayList<>();
+        for (int i = start; i <= end; i++) {
+            ProcessBuilder pb = new ProcessBuilder(commands.get(i).args);
+            pb.directory(cwd);
+            pb.redirectError(Redirects.stderrTarget(commands.get(i), err));
+            builders.add(pb);
+        }
+        if (endsLine || commands.get(end).redirectStdout) {
+            builders.get(builders.size() - 1).redirectOutput(Redirects.stdoutTarget(commands.get(end), out));
+        }
+
+        LineMetrics metrics = Metrics.current();
+        metrics.spawning();
+        long spawnStart = System.nanoTime();
+        PipelineStageEvent[] events = new PipelineStageEvent[builders.size()];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = Events.stage(start + i + 1, commands.get(start + i).args, false);
+        }
+        List<Process> started = ProcessBuilder.startPipeline(builders);
+        metrics.spawned(started.size(), System.nanoTime() - spawnStart);
+
+        for (int i = 0; i < started.size(); i++) {
+            Process process = started.get(i);
+            processes[start + i] = process;
+            Events.exitOf(events[i], process);
+            if (builders.get(i).redirectError() == Redirect.PIPE) {
+                pumps.add(Pumps.pump(process.getErrorStream(), err, false, (start + i + 1) + " 2>"));
+            }
+        }
+        if (endsLine && builders.get(builders.size() - 1).redirectOutput() == Redirect.PIPE) {
+            pumps.add(Pumps.pump(processes[end].getInputStream(), out, false, (end + 1) + ">"));
+        }
+    }
+
+    // all-external pipelines are wired with OS pipes between stages, so no bytes cross the JVM;
+    // the ends inherit the shell's stdout/stderr or point straight at redirect files
+    private static int runExternal(List<ParsedCommand> commands, PrintStream out, PrintStream err,
+                                   ProcessListener listener) throws Exception {
+        Process[] processes = new Process[commands.size()];
+        List<Future<?>> pumps = new ArrayList<>();
+
+        out.flush();
+        err.flush();
+        startRun(commands, 0, commands.size() - 1, processes, out, err, pumps);
+        listener.started(List.of(processes));
+
+        feedStdin(commands, 0, processes[0], pumps);
+
+        int status = 0;
         for (Process process : processes) {
-            process.waitFor();
+            status = process.waitFor();
         }
 
-        for (Thread thread : threads) {
-            thread.join();
+        for (Future<?> pump : pumps) {
+            Pumps.await(pump);
         }
+        return status;
     }
 
-    public static void runTwoCommands(String input, PrintStream out, PrintStream err, BullitinRunner builtinRunner, Parser parser) throws Exception {
-
-        String[] commandParts = input.split("\\|", 2);
-        if (commandParts.length != 2) {
-            err.println("Invalid pipeline command");
-            return;
-        }
-
-        ParsedCommand left = parser.parseCommand(commandParts[0].trim());
-        ParsedCommand right = parser.parseCommand(commandParts[1].trim());
-
-        boolean leftBuiltin = builtinRunner.isShellBuiltin(left.args[0]);
-        boolean rightBuiltin = builtinRunner.isShellBuiltin(right.args[0]);
-
-        if(!leftBuiltin && !rightBuiltin){
-            ProcessBuilder pb1 = new ProcessBuilder(left.args);
-            ProcessBuilder pb2 = new ProcessBuilder(right.args);
-
-            pb1.directory(new File(System.getProperty("user.dir")));
-            pb2.directory(new File(System.getProperty("user.dir")));
-
-            Process p1 = pb1.start();
-            Process p2 = pb2.start();
-
-            Thread t1 = pump(p1.getInputStream(), p2.getOutputStream(), true);
-            Thread t2 = pump(p1.getErrorStream(), err, false);
-            Thread t3 = pump(p2.getErrorStream(), err, false);
-            Thread t4 = pump(p2.getInputStream(), out, false);
-
-            p1.getOutputStream().close();
-
-            p1.waitFor();
-            p2.getOutputStream().close();
-            p2.waitFor();
-
-            t1.join();
-            t2.join();
-            t3.join();
-            t4.join();
-           
-        } 
-        if (leftBuiltin && rightBuiltin) {
-            ByteArrayOutputStream capturedOutput = new ByteArrayOutputStream();
-            PrintStream discardStream = new PrintStream(capturedOutput);
-            builtinRunner.run(left, discardStream, err);
-            discardStream.flush();
-            builtinRunner.run(right, out, err);
-            return;
-        }
-        if (leftBuiltin && !rightBuiltin) {
-            ByteArrayOutputStream capturedOutput = new ByteArrayOutputStream();
-            PrintStream captureStream = new PrintStream(capturedOutput);
-            builtinRunner.run(left, captureStream, err);
-            captureStream.flush();
-
-            ProcessBuilder pb2 = new ProcessBuilder(right.args);
-            pb2.directory(new File(System.getProperty("user.dir")));
-            Process p2 = pb2.start();
-
-            // Pump left output to right input
-            Thread t1 = pump(new java.io.ByteArrayInputStream(capturedOutput.toByteArray()), p2.getOutputStream(), true);
-            Thread t2 = pump(p2.getErrorStream(), err, false);
-            Thread t3 = pump(p2.getInputStream(), out, false);
-
-            p2.getOutputStream().close();
-            p2.waitFor();
-
-            t1.join();
-            t2.join();
-            t3.join();
-        }
-        if (!leftBuiltin && rightBuiltin) {
-            ProcessBuilder pb1 = new ProcessBuilder(left.args);
-            pb1.directory(new File(System.getProperty("user.dir")));
-            Process p1 = pb1.start();
-            
-            ByteArrayOutputStream ignored = new ByteArrayOutputStream();
-            Thread drainStdout = pump(p1.getInputStream(), ignored, true);
-            Thread drainStderr = pump(p1.getErrorStream(), err, false);
-
-            p1.waitFor();
-            drainStdout.join();
-            drainStderr.join();
-
-            // Now run builtin RHS normally
-            builtinRunner.run(right, out, err);
-            return;
-        }   
+    // a process stage with a here-document gets it on stdin; the stdin of the first stage, or of one
+    // after a redirected stage, is closed otherwise
+    private static void feedStdin(List<ParsedCommand> commands, int stage, Process process, List<Future<?>> pumps) throws IOException {
+        ParsedCommand pc = commands.get(stage);
+        if (pc.stdin != null) pumps.add(Pumps.pump(pc.stdin.open(), process.getOutputStream(), true, (stage + 1) + "<"));
+        else if (stage == 0 || commands.get(stage - 1).redirectStdout) process.getOutputStream().close();
+    }
+
+    // the streams a builtin stage reads from a process or writes to the next stage go through the
+    // JVM, so their byte counts are added to the line's metrics when the stage closes them
+    private static final class CountedOutput extends FilterOutputStream {
+        private final LineMetrics metrics = Metrics.current();
+        private final String pipe;
+        private long bytes;
+        private boolean closed;
+
+        CountedOutput(OutputStream out, String pipe) {
+            super(out);
+            this.pipe = pipe;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try { super.close(); }
+            finally { metrics.piped(pipe, bytes); }
+        }
+    }
+
+    private static final class CountedInput extends FilterInputStream {
+        private final LineMetrics metrics = Metrics.current();
+        private final String pipe;
+        private long bytes;
+        private boolean closed;
+
+        CountedInput(InputStream in, String pipe) {
+            super(in);
+            this.pipe = pipe;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) bytes++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) bytes += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try { super.close(); }
+            finally { metrics.piped(pipe, bytes); }
+        }
     }
 }
@@ -0,0 +1,175 @@
+package pipes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.LineMetrics;
+import metrics.Metrics;
+import metrics.Events;
+import metrics.PumpEvent;
+
+// shared virtual-thread executor for stream copying and in-process pipeline stages,
+// so a pipeline costs no platform thread creation. buffer size: -Dshell.pump.bufferSize=<bytes>
+//
+// flush policy (-Dshell.pump.flush): "always" writes and flushes every read; "adaptive" (default)
+// coalesces reads into up to -Dshell.pump.coalesceSize bytes and only writes+flushes when that fills,
+// when the upstream has nothing more available (it is about to stall), or when
+// -Dshell.pump.flushBudgetMillis has passed since the last flush, so `tail -f | grep` stays live
+// while bulk streams make far fewer write syscalls.
+public final class Pumps {
+
+    public enum FlushPolicy { ALWAYS, ADAPTIVE }
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final int BUFFER_SIZE = Math.max(512, Integer.getInteger("shell.pump.bufferSize", 8192));
+    private static final int COALESCE_SIZE = Math.max(BUFFER_SIZE, Integer.getInteger("shell.pump.coalesceSize", 65536));
+    private static final long FLUSH_BUDGET_NANOS = Long.getLong("shell.pump.flushBudgetMillis", 50) * 1_000_000L;
+    private static final FlushPolicy FLUSH_POLICY =
+        "always".equalsIgnoreCase(System.getProperty("shell.pump.flush")) ? FlushPolicy.ALWAYS : FlushPolicy.ADAPTIVE;
+
+    private static final AtomicInteger ACTIVE = new AtomicInteger();
+    private static final AtomicInteger PEAK_ACTIVE = new AtomicInteger();
+    private static final AtomicLong STARTED = new AtomicLong();
+    private static final AtomicLong BYTES = new AtomicLong();
+    private static final AtomicLong FLUSHES = new AtomicLong();
+
+    private Pumps() {}
+
+    public static Future<?> pump(InputStream in, OutputStream out, boolean closeOut) {
+        return pump(in, out, closeOut, FLUSH_POLICY, null);
+    }
+
+    // `pipe` names the stream in the current line's metrics, e.g. "2>" for stage 2's stdout
+    public static Future<?> pump(InputStream in, OutputStream out, boolean closeOut, String pipe) {
+        return pump(in, out, closeOut, FLUSH_POLICY, pipe);
+    }
+
+    public static Future<?> pump(InputStream in, OutputStream out, boolean closeOut, FlushPolicy policy) {
+        return pump(in, out, closeOut, policy, null);
+    }
+
+    private static Future<?> pump(InputStream in, OutputStream out, boolean closeOut, FlushPolicy policy, String pipe) {
+        STARTED.incrementAndGet();
+        LineMetrics metrics = Metrics.current();
+        return EXECUTOR.submit(() -> {
+            PEAK_ACTIVE.accumulateAndGet(ACTIVE.incrementAndGet(), Math::max);
+            PumpEvent event = Events.pump();
+            long[] copied = {0, 0}; // bytes, flushes
+            try {
+                if (policy == FlushPolicy.ADAPTIVE) copyCoalescing(in, out, copied);
+                else copyFlushingEachRead(in, out, copied);
+            } catch (IOException ignored) {
+            } finally {
+                try { in.close(); } catch (IOException ignored) {}
+                if (closeOut) {
+                    try { out.close(); } catch (IOException ignored) {}
+                }
+                if (pipe != null) metrics.piped(pipe, copied[0]);
+                Events.pumped(event, pipe, copied[0], copied[1]);
+                ACTIVE.decrementAndGet();
+            }
+        });
+    }
+
+    private static void copyFlushingEachRead(InputStream in, OutputStream out, long[] copied) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) != -1) {
+            out.write(buffer, 0, bytesRead);
+            flush(out);
+            copied[0] += bytesRead;
+            copied[1]++;
+            BYTES.addAndGet(bytesRead);
+            FLUSHES.incrementAndGet();
+        }
+    }
+
+    private static void copyCoalescing(InputStream in, OutputStream out, long[] copied) throws IOException {
+        byte[] buffer = new byte[COALESCE_SIZE];
+        int filled = 0;
+        long lastFlush = System.nanoTime();
+        int bytesRead;
+        while ((bytesRead = in.read(buffer, filled, buffer.length - filled)) != -1) {
+            filled += bytesRead;
+            copied[0] += bytesRead;
+            BYTES.addAndGet(bytesRead);
+
+            long now = System.nanoTime();
+            if (filled == buffer.length || in.available() == 0 || now - lastFlush >= FLUSH_BUDGET_NANOS) {
+                out.write(buffer, 0, filled);
+                flush(out);
+                copied[1]++;
+                FLUSHES.incrementAndGet();
+                filled = 0;
+                lastFlush = now;
+            }
+        }
+        if (filled > 0) {
+            out.write(buffer, 0, filled);
+            flush(out);
+            copied[1]++;
+            FLUSHES.incrementAndGet();
+        }
+    }
+
+    // a PrintStream keeps write errors to itself; the pump stops on them like on any other failed
+    // write, and closing the source then gives the process a broken pipe
+    private static void flush(OutputStream out) throws IOException {
+        out.flush();
+        if (out instanceof PrintStream print && print.checkError()) throw new IOException("write failed");
+    }
+
+    public static Future<?> submit(Runnable task) {
+        return EXECUTOR.submit(task);
+    }
+
+    public static <T> Future<T> submit(Callable<T> task) {
+        return EXECUTOR.submit(task);
+    }
+
+    // waits for a pump or stage; failures were already reported on the stage's stderr
+    public static void await(Future<?> task) throws InterruptedException {
+        try {
+            task.get();
+        } catch (ExecutionException ignored) {
+        }
+    }
+
+    public static int bufferSize() {
+        return BUFFER_SIZE;
+    }
+
+    public static int activePumps() {
+        return ACTIVE.get();
+    }
+
+    public static int peakActivePumps() {
+        return PEAK_ACTIVE.get();
+    }
+
+    public static long pumpsStarted() {
+        return STARTED.get();
+    }
+
+    public static long bytesMoved() {
+        return BYTES.get();
+    }
+
+    public static long flushes() {
+        return FLUSHES.get();
+    }
+
+    public static double flushesPerMegabyte() {
+        long bytes = BYTES.get();
+        return bytes == 0 ? 0 : FLUSHES.get() / (bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,47 @@
+package pipes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
+
+import parse.ParsedCommand;
+
+// maps a command's `>`, `>>`, `2>`, `2>>` onto either a child-process redirect (no bytes through
+// the shell) or, for builtins, a stream the shell writes itself
+public final class Redirects {
+
+    private Redirects() {}
+
+    public static Redirect stdoutTarget(ParsedCommand pc, PrintStream out) {
+        if (pc.redirectStdout) {
+            File file = resolve(pc.redirectFile);
+            return pc.appendStdout ? Redirect.appendTo(file) : Redirect.to(file);
+        }
+        return out == System.out ? Redirect.INHERIT : Redirect.PIPE;
+    }
+
+    public static Redirect stderrTarget(ParsedCommand pc, PrintStream err) {
+        if (pc.redirectStderr) {
+            File file = resolve(pc.stderrFile);
+            return pc.appendStderr ? Redirect.appendTo(file) : Redirect.to(file);
+        }
+        return err == System.err ? Redirect.INHERIT : Redirect.PIPE;
+    }
+
+    public static PrintStream stdoutFor(ParsedCommand pc, PrintStream out) throws IOException {
+        if (!pc.redirectStdout) return out;
+        return new FileSink(resolve(pc.redirectFile), pc.appendStdout);
+    }
+
+    public static PrintStream stderrFor(ParsedCommand pc, PrintStream err) throws IOException {
+        if (!pc.redirectStderr) return err;
+        return new FileSink(resolve(pc.stderrFile), pc.appendStderr);
+    }
+
+    // relative names follow `cd`, which only moves the user.dir property
+    public static File resolve(String fileName) {
+        File file = new File(fileName);
+        return file.isAbsolute() ? file : new File(System.getProperty("user.dir"), fileName);
+    }
+}
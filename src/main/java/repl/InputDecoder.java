@@ -0,0 +1,180 @@
+package repl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+
+// turns terminal input into key actions. each read takes every byte that is available, UTF-8 is
+// decoded incrementally (a character split across reads is completed by the next one), and escape
+// sequences go through a small state machine that carries them across reads. printable characters that
+// arrive together become one INSERT_TEXT, and a bracketed paste (ESC[200~ ... ESC[201~) becomes a
+// single INSERT_TEXT with its contents verbatim, control characters included.
+final class InputDecoder {
+
+    static final String PASTE_ON = "\033[?2004h";
+    static final String PASTE_OFF = "\033[?2004l";
+
+    private static final String PASTE_END = "\033[201~";
+
+    // how long an ESC waits for the rest of a sequence; readline's keyseq-timeout is 500
+    private static final long ESC_TIMEOUT_MILLIS = 100;
+
+    private enum State { GROUND, ESCAPE, CSI, SS3, PASTE }
+
+    private final InputStream in;
+    private final byte[] bytes = new byte[64 * 1024];
+    private final ArrayDeque<KeyAction> actions = new ArrayDeque<>();
+
+    private int codePoint;      // UTF-8 character being assembled
+    private int continuations;  // continuation bytes it still needs
+
+    private State state = State.GROUND;
+    private final StringBuilder text = new StringBuilder();    // printable run, or the paste so far
+    private final StringBuilder params = new StringBuilder();  // CSI parameter bytes
+    private int pasteEndMatched = 0;                           // chars of PASTE_END seen inside a paste
+
+    InputDecoder(InputStream in) {
+        this.in = in;
+    }
+
+    // the next action, or null at end of input
+    KeyAction next() throws IOException {
+        while (actions.isEmpty()) {
+            int n = in.read(bytes);
+            if (n < 0) {
+                if (state == State.PASTE) {
+                    text.append(PASTE_END, 0, pasteEndMatched);
+                    emitPaste();
+                }
+                emitText();
+                return actions.poll();
+            }
+            for (int i = 0; i < n; i++) decode(bytes[i] & 0xFF);
+
+            // a key's escape sequence can reach us in two reads (ssh, tmux): an ESC ending the input is
+            // the Esc key only when nothing follows it in time, else the next read continues the sequence
+            if (state == State.ESCAPE && !arrivesWithin(ESC_TIMEOUT_MILLIS)) {
+                state = State.GROUND;
+                actions.add(KeyAction.ignore());
+            }
+            if (state == State.GROUND) emitText();
+        }
+        return actions.poll();
+    }
+
+    private boolean arrivesWithin(long millis) throws IOException {
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        while (in.available() == 0) {
+            if (System.nanoTime() >= deadline) return false;
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // whether more input is ready without blocking
+    boolean hasPending() throws IOException {
+        return !actions.isEmpty() || in.available() > 0;
+    }
+
+    private void decode(int b) {
+        if (continuations > 0) {
+            if ((b & 0xC0) == 0x80) {
+                codePoint = (codePoint << 6) | (b & 0x3F);
+                if (--continuations == 0) accept(codePoint);
+                return;
+            }
+            continuations = 0;
+            accept(0xFFFD);
+        }
+        if (b < 0x80) accept(b);
+        else if ((b & 0xE0) == 0xC0) { codePoint = b & 0x1F; continuations = 1; }
+        else if ((b & 0xF0) == 0xE0) { codePoint = b & 0x0F; continuations = 2; }
+        else if ((b & 0xF8) == 0xF0) { codePoint = b & 0x07; continuations = 3; }
+        else accept(0xFFFD);
+    }
+
+    private void accept(int c) {
+        switch (state) {
+            case GROUND -> ground(c);
+            case ESCAPE -> {
+                // ESC followed by anything but '[' or 'O' is an Alt-chord; drop it
+                state = c == '[' ? State.CSI : c == 'O' ? State.SS3 : State.GROUND;
+                params.setLength(0);
+            }
+            case CSI -> csi(c);
+            case SS3 -> {
+                state = State.GROUND;
+                if (c == 'A') actions.add(KeyAction.historyUp());
+                else if (c == 'B') actions.add(KeyAction.historyDown());
+            }
+            case PASTE -> paste(c);
+        }
+    }
+
+    private void ground(int c) {
+        if (c >= 32 && c != 127) {
+            text.appendCodePoint(c);
+            return;
+        }
+        emitText();
+        switch (c) {
+            case '\r', '\n' -> actions.add(KeyAction.enter());
+            case '\t' -> actions.add(KeyAction.tab());
+            case 18 -> actions.add(KeyAction.reverseSearch()); // Ctrl-R
+            case 127, 8 -> actions.add(KeyAction.backspace());
+            case 27 -> state = State.ESCAPE;
+            default -> actions.add(KeyAction.ignore());
+        }
+    }
+
+    private void csi(int c) {
+        if (c >= 0x20 && c <= 0x3F) {
+            params.append((char) c);
+            return;
+        }
+        state = State.GROUND;
+        if (c == 'A') actions.add(KeyAction.historyUp());
+        else if (c == 'B') actions.add(KeyAction.historyDown());
+        else if (c == '~' && params.toString().equals("200")) {
+            state = State.PASTE;
+            pasteEndMatched = 0;
+        }
+        // anything else (other keys, malformed sequences) is ignored
+    }
+
+    private void paste(int c) {
+        if (c == PASTE_END.charAt(pasteEndMatched)) {
+            if (++pasteEndMatched == PASTE_END.length()) {
+                state = State.GROUND;
+                emitPaste();
+            }
+            return;
+        }
+        // not the end marker after all: keep what was held back
+        text.append(PASTE_END, 0, pasteEndMatched);
+        pasteEndMatched = 0;
+        if (c == PASTE_END.charAt(0)) { pasteEndMatched = 1; return; }
+        text.appendCodePoint(c);
+    }
+
+    // terminals paste line breaks as CR
+    private void emitPaste() {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) != '\r') continue;
+            if (i + 1 < text.length() && text.charAt(i + 1) == '\n') text.deleteCharAt(i);
+            else text.setCharAt(i, '\n');
+        }
+        emitText();
+    }
+
+    private void emitText() {
+        if (text.isEmpty()) return;
+        actions.add(KeyAction.insert(text.toString()));
+        text.setLength(0);
+    }
+}
@@ -1,43 +1,47 @@
 package repl;
 
-public record KeyAction (Type type, char ch) {
+public record KeyAction (Type type, String text) {
     
     public enum Type {
-        INSERT_CHAR,
+        INSERT_TEXT,
         BACKSPACE,
         TAB,
         ENTER,
         HISTORY_UP,
         HISTORY_DOWN,
+        REVERSE_SEARCH,
         IGNORE
     }
 
-    public static KeyAction insert(char c) {
-        return new KeyAction(Type.INSERT_CHAR, c);
+    public static KeyAction insert(String text) {
+        return new KeyAction(Type.INSERT_TEXT, text);
     }
 
     public static KeyAction backspace() {
-        return new KeyAction(Type.BACKSPACE, '\0');
+        return new KeyAction(Type.BACKSPACE, null);
     }
 
     public static KeyAction tab() {
-        return new KeyAction(Type.TAB, '\0');
+        return new KeyAction(Type.TAB, null);
     }
 
     public static KeyAction enter() {
-        return new KeyAction(Type.ENTER, '\0');
+        return new KeyAction(Type.ENTER, null);
     }
 
     public static KeyAction historyUp() {
-        return new KeyAction(Type.HISTORY_UP, '\0');
+        return new KeyAction(Type.HISTORY_UP, null);
     }
 
     public static KeyAction historyDown() {
-        return new KeyAction(Type.HISTORY_DOWN, '\0');
+        return new KeyAction(Type.HISTORY_DOWN, null);
+    }
+
+    public static KeyAction reverseSearch() {
+        return new KeyAction(Type.REVERSE_SEARCH, null);
     }
 
     public static KeyAction ignore() {
-        return new KeyAction(Type.IGNORE, '\0');
+        return new KeyAction(Type.IGNORE, null);
     }
 }
-
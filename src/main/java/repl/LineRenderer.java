@@ -0,0 +1,118 @@
+package repl;
+
+import java.io.PrintStream;
+import java.util.function.IntSupplier;
+
+// keeps what the terminal row currently shows and what it should show, and on flush() writes only
+// the difference: back up over the changed tail, print the new tail, erase what is left over. edits
+// between two flushes collapse into one diff and one write, so a burst of typed or pasted keys costs
+// a single write instead of one per byte. the line starts at the left edge and the cursor sits at
+// its end. the text is compared in whole characters and positioned in display columns (DisplayWidth),
+// so wide characters, emoji and combining marks are backed over and redrawn as the terminal shows
+// them. a line wider than the terminal soft-wraps onto more rows, which \r, \b and CSI D cannot
+// leave: the cursor goes up to the row where the change starts and clears to the end of the screen.
+final class LineRenderer {
+
+    private final PrintStream out;
+    private final IntSupplier columns;
+    private final StringBuilder pending = new StringBuilder();
+    private String shown = "";
+    private String target = "";
+
+    LineRenderer(PrintStream out, IntSupplier columns) {
+        this.out = out;
+        this.columns = columns;
+    }
+
+    void show(String line) {
+        target = line;
+    }
+
+    void beep() {
+        pending.append('\007');
+    }
+
+    // a control sequence that does not move the cursor, written with the next flush
+    void emit(String sequence) {
+        pending.append(sequence);
+    }
+
+    // ends the row; the next show() starts on a fresh one
+    void newline() {
+        diff();
+        pending.append('\n');
+        shown = target = "";
+    }
+
+    // something else wrote to the terminal and left the cursor at the start of an empty row
+    void reset() {
+        shown = "";
+    }
+
+    void flush() {
+        diff();
+        if (pending.isEmpty()) return;
+        out.append(pending);
+        out.flush();
+        pending.setLength(0);
+    }
+
+    private void diff() {
+        int common = 0;
+        int max = Math.min(shown.length(), target.length());
+        while (common < max && shown.charAt(common) == target.charAt(common)) common++;
+        // never split a surrogate pair, and redraw a character whose combining marks changed from its base
+        while (common > 0 && (Character.isHighSurrogate(shown.charAt(common - 1))
+                || DisplayWidth.joinsPrevious(shown, common) || DisplayWidth.joinsPrevious(target, common))) {
+            common--;
+        }
+
+        int width = Math.max(1, columns.getAsInt());
+        Position end = position(shown, shown.length(), width);
+        Position from = position(shown, common, width);
+        if (end.row == 0 && end.column < width) {
+            // all on one row, the common case
+            int back = end.column - from.column;
+            if (back > 0) {
+                if (common == 0) pending.append('\r');
+                else if (back == 1) pending.append('\b');
+                else pending.append("\033[").append(back).append('D');
+            }
+            pending.append(target, common, target.length());
+            if (DisplayWidth.of(target, common, target.length()) < back) pending.append("\033[K");
+        } else if (common < shown.length()) {
+            // a change at the very end of a full row continues at the start of the next one
+            if (from.column == width) from = new Position(from.row + 1, 0);
+            int up = end.row - from.row;
+            if (up > 0) pending.append("\033[").append(up).append('A');
+            pending.append('\r');
+            if (from.column > 0) pending.append("\033[").append(from.column).append('C');
+            pending.append("\033[J").append(target, common, target.length());
+        } else {
+            pending.append(target, common, target.length());
+        }
+        shown = target;
+    }
+
+    private record Position(int row, int column) {}
+
+    // where the cursor is after the first `length` chars. as terminals do, a character wider than
+    // what is left of a row moves to the next one, and a full row leaves the cursor on it
+    // (column == width) until the next character is printed
+    private static Position position(String text, int length, int width) {
+        int row = 0;
+        int column = 0;
+        for (int i = 0; i < length; ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            int w = DisplayWidth.of(codePoint);
+            if (w == 0) continue;
+            if (column + w > width) {
+                row++;
+                column = 0;
+            }
+            column += w;
+        }
+        return new Position(row, column);
+    }
+}
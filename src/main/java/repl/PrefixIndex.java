@@ -0,0 +1,58 @@
+package repl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+// sorted, de-duplicated name array: every name sharing a prefix sits in one contiguous run,
+// so a lookup is two binary searches and the LCP of a run is the LCP of its first and last entry.
+public final class PrefixIndex {
+
+    private final String[] names;
+
+    public PrefixIndex(Collection<String> names) {
+        this.names = new TreeSet<>(names).toArray(new String[0]);
+    }
+
+    public List<String> matches(String prefix) {
+        int from = lowerBound(prefix);
+        int to = endOfRun(prefix, from);
+        return Arrays.asList(names).subList(from, to);
+    }
+
+    public String longestCommonPrefix(List<String> matches) {
+        if (matches.isEmpty()) return "";
+        String first = matches.get(0);
+        String last = matches.get(matches.size() - 1);
+        int j = 0;
+        while (j < first.length() && j < last.length() && first.charAt(j) == last.charAt(j)) {
+            j++;
+        }
+        return first.substring(0, j);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    private int lowerBound(String prefix) {
+        int lo = 0, hi = names.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (names[mid].compareTo(prefix) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private int endOfRun(String prefix, int from) {
+        int lo = from, hi = names.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (names[mid].startsWith(prefix)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
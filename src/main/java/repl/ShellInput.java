@@ -1,50 +1,90 @@
 package repl;
 
 import java.io.IOException;
+import java.util.function.IntSupplier;
 
 import history.History;
 
 public class ShellInput {
 
     private static final String PROMPT = "$ ";
+    private static final String CONTINUATION_PROMPT = "> ";
 
     private final History history;
     private final StringBuilder buffer = new StringBuilder();
-    private final KeyHandler keyHandler = new KeyHandler();
+    private final InputDecoder input = new InputDecoder(System.in);
     private final TabCompletion tabCompletion = new TabCompletion();
+    private final LineRenderer renderer;
+    private String prompt = PROMPT;
 
-    public ShellInput(History history) {
+    // Ctrl-R incremental search state
+    private boolean searching = false;
+    private final StringBuilder query = new StringBuilder();
+    private int matchIndex = -1;
+    private String savedBuffer = "";
+
+    // `columns` reports the terminal's width, for lines longer than one row
+    public ShellInput(History history, IntSupplier columns) {
         this.history = history;
+        this.renderer = new LineRenderer(System.out, columns);
     }
 
+    // the line, or null at end of input
     public String readLine() throws IOException {
+        prompt = PROMPT;
+        String line = read();
+        return line == null ? null : line.trim();
+    }
+
+    // a here-document line after the "> " prompt, as typed: leading blanks and tabs are kept
+    public String readContinuationLine() throws IOException {
+        prompt = CONTINUATION_PROMPT;
+        return read();
+    }
+
+    private String read() throws IOException {
         buffer.setLength(0);
+        renderer.emit(InputDecoder.PASTE_ON);
         printPrompt();
 
         while (true) {
-            int ch = System.in.read();
-            KeyAction action = keyHandler.handle(ch);
+            // the terminal is only written once the keys that arrived together are all handled
+            if (!input.hasPending()) renderer.flush();
+            KeyAction action = input.next();
+            if (action == null) {
+                renderer.newline();
+                renderer.emit(InputDecoder.PASTE_OFF);
+                renderer.flush();
+                return null;
+            }
+
+            if (searching) {
+                if (handleSearchKey(action)) continue;
+                if (action.type() == KeyAction.Type.IGNORE) continue;
+            }
 
             switch (action.type()) {
 
-                case INSERT_CHAR -> {
-                    buffer.append(action.ch());
-                    System.out.print(action.ch());
-                    System.out.flush();
+                case INSERT_TEXT -> {
+                    buffer.append(action.text());
+                    redrawLine();
                     tabCompletion.resetTab();
                 }
 
                 case BACKSPACE -> {
                     if (buffer.length() > 0) {
-                        buffer.setLength(buffer.length() - 1);
-                        System.out.print("\b \b");
-                        System.out.flush();
+                        deleteLastCharacter(buffer);
+                        redrawLine();
                         tabCompletion.resetTab();
                     }
                 }
 
                 case TAB -> {
+                    // a second Tab prints the match list itself, below the line
+                    renderer.flush();
+                    String before = buffer.toString();
                     boolean changed = tabCompletion.completeLine(buffer);
+                    if (changed && buffer.toString().equals(before)) renderer.reset();
                     redrawLine();
                     if (!changed) beep();
                 }
@@ -70,9 +110,20 @@ public class ShellInput {
                 }
 
                 case ENTER -> {
-                    System.out.println();
+                    renderer.newline();
+                    renderer.emit(InputDecoder.PASTE_OFF);
+                    renderer.flush();
+                    tabCompletion.resetTab();
+                    return buffer.toString();
+                }
+
+                case REVERSE_SEARCH -> {
+                    searching = true;
+                    savedBuffer = buffer.toString();
+                    query.setLength(0);
+                    matchIndex = -1;
                     tabCompletion.resetTab();
-                    return buffer.toString().trim();
+                    redrawSearch(false);
                 }
 
                 case IGNORE -> beep();
@@ -80,20 +131,92 @@ public class ShellInput {
         }
     }
 
+    // returns true when the key was consumed by the search; otherwise the search has ended
+    // (accepting the match into the buffer, or restoring it on cancel) and the key is handled normally
+    private boolean handleSearchKey(KeyAction action) {
+        switch (action.type()) {
+            case INSERT_TEXT -> {
+                query.append(action.text());
+                int from = matchIndex == -1 ? history.nextId() : matchIndex + 1;
+                updateMatch(history.search(query.toString(), from));
+                return true;
+            }
+            case BACKSPACE -> {
+                if (query.length() > 0) deleteLastCharacter(query);
+                updateMatch(query.length() == 0 ? -1 : history.search(query.toString(), history.nextId()));
+                return true;
+            }
+            case REVERSE_SEARCH -> {
+                if (matchIndex > 0 || matchIndex == -1) {
+                    int before = matchIndex == -1 ? history.nextId() : matchIndex;
+                    updateMatch(history.search(query.toString(), before));
+                } else {
+                    redrawSearch(true);
+                }
+                return true;
+            }
+            case IGNORE -> {
+                searching = false;
+                buffer.setLength(0);
+                buffer.append(savedBuffer);
+                redrawLine();
+                return false;
+            }
+            default -> {
+                searching = false;
+                if (matchIndex != -1) {
+                    buffer.setLength(0);
+                    buffer.append(history.entryById(matchIndex));
+                }
+                redrawLine();
+                return false;
+            }
+        }
+    }
+
+    private void updateMatch(int found) {
+        boolean failed = found == -1 && query.length() > 0;
+        if (!failed) matchIndex = found;
+        if (failed) beep();
+        redrawSearch(failed);
+    }
+
+    private void redrawSearch(boolean failed) {
+        StringBuilder line = new StringBuilder(failed ? "(failed reverse-i-search)`" : "(reverse-i-search)`");
+        line.append(query).append("': ");
+        if (matchIndex != -1) line.append(history.entryById(matchIndex));
+        renderer.show(line.toString());
+    }
+
     private void printPrompt() {
-        System.out.print(PROMPT);
-        System.out.flush();
+        renderer.show(prompt);
     }
 
     private void redrawLine() {
-        System.out.print("\r\033[2K");
-        printPrompt();
-        System.out.print(buffer);
-        System.out.flush();
+        renderer.show(prompt + visible(buffer));
+    }
+
+    // one code point, so backspacing over an emoji does not leave half a surrogate pair behind
+    private static void deleteLastCharacter(StringBuilder text) {
+        text.setLength(text.length() - Character.charCount(text.codePointBefore(text.length())));
+    }
+
+    // pasted text may hold line breaks and other control characters; show them as ^J, ^I, ...
+    private static CharSequence visible(CharSequence text) {
+        int i = 0;
+        while (i < text.length() && text.charAt(i) >= 32) i++;
+        if (i == text.length()) return text;
+
+        StringBuilder shown = new StringBuilder(text.length() + 8).append(text, 0, i);
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 32) shown.append('^').append((char) (c + 64));
+            else shown.append(c);
+        }
+        return shown;
     }
 
     private void beep() {
-        System.out.print("\007");
-        System.out.flush();
+        renderer.beep();
     }
 }
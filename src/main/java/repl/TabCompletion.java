@@ -1,16 +1,29 @@
 package repl;
 
-import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
+import commands.Builtins;
+import commands.PathIndex;
+
 public class TabCompletion {
 
     private boolean tabPending = false;
     private String tabPrefix = null;
     private List<String> tabMatches = null;
 
+    private final PathIndex pathIndex;
+    private PrefixIndex index = null;
+    private long indexGeneration = -1;
+
+    public TabCompletion() {
+        this(PathIndex.shared());
+    }
+
+    public TabCompletion(PathIndex pathIndex) {
+        this.pathIndex = pathIndex;
+    }
+
     public boolean completeLine(StringBuilder buffer) {
         String prefix = buffer.toString();
 
@@ -19,22 +32,7 @@ public class TabCompletion {
             return false;
         }
 
-        if ("echo".startsWith(prefix) && !prefix.equals("echo")) {
-            buffer.setLength(0);
-            buffer.append("echo ");
-            resetTab();
-            return true;
-        }
-
-        if ("exit".startsWith(prefix) && !prefix.equals("exit")) {
-            buffer.setLength(0);
-            buffer.append("exit ");
-            resetTab();
-            return true;
-        }
-
-        List<String> matches = findExecutableMatches(prefix);
-        Collections.sort(matches);
+        List<String> matches = commandIndex().matches(prefix);
 
         if (matches.isEmpty()) {
             resetTab();
@@ -48,7 +46,7 @@ public class TabCompletion {
             return true;
         }
 
-        String lcp = longestCommonPrefix(matches);
+        String lcp = index.longestCommonPrefix(matches);
         if (lcp.length() > prefix.length()) {
             buffer.setLength(0);
             buffer.append(lcp);
@@ -70,43 +68,16 @@ public class TabCompletion {
         return true;
     }
 
-    private List<String> findExecutableMatches(String prefix) {
-        List<String> matches = new ArrayList<>();
-        String pathEnv = System.getenv("PATH");
-        if (pathEnv == null) return matches;
-
-        String[] paths = pathEnv.split(System.getProperty("path.separator"));
-
-        for (String dirPath : paths) {
-            File dir = new File(dirPath);
-            File[] files = dir.listFiles();
-            if (files == null) continue;
-
-            for (File f : files) {
-                if (f.isFile()
-                        && f.canExecute()
-                        && f.getName().startsWith(prefix)) {
-                    matches.add(f.getName());
-                }
-            }
-        }
-        return matches;
-    }
-
-    private String longestCommonPrefix(List<String> strings) {
-        String prefix = strings.get(0);
-        for (int i = 1; i < strings.size(); i++) {
-            String s = strings.get(i);
-            int j = 0;
-            while (j < prefix.length()
-                    && j < s.length()
-                    && prefix.charAt(j) == s.charAt(j)) {
-                j++;
-            }
-            prefix = prefix.substring(0, j);
-            if (prefix.isEmpty()) break;
+    // rebuilt only when a PATH directory changed since the last Tab
+    private PrefixIndex commandIndex() {
+        long generation = pathIndex.generation();
+        if (index == null || generation != indexGeneration) {
+            List<String> names = new ArrayList<>(pathIndex.executableNames());
+            names.addAll(Builtins.names());
+            index = new PrefixIndex(names);
+            indexGeneration = generation;
         }
-        return prefix;
+        return index;
     }
 
     private void printMatches(List<String> matches) {
@@ -0,0 +1,26 @@
+#!/bin/sh
+#
+# Measures time to first prompt (JVM start included) over RUNS interactive starts, without and
+# with the class-data-sharing archive. Needs util-linux `script` for the pty; build first with
+# ./your_program.sh or .codecrafters/compile.sh.
+
+BUILD_DIR=/tmp/codecrafters-build-shell-java
+JAR="$BUILD_DIR/codecrafters-shell.jar"
+JSA="$BUILD_DIR/codecrafters-shell.jsa"
+RUNS=${RUNS:-10}
+
+measure() {
+  label=$1
+  shift
+  for i in $(seq "$RUNS"); do
+    printf 'exit\n' | HISTFILE= script -qec "SHELL_STARTUP_TIMING=\$(date +%s%N) exec java $* --enable-preview -jar $JAR" /dev/null
+  done | tr -d '\r' | awk -v label="$label" '
+    /^startup: / { sum += $2; n++; if (min == "" || $2 < min) min = $2 }
+    END { if (n) printf "%-8s %d runs  mean %.1f ms  min %.1f ms\n", label, n, sum / n, min }'
+}
+
+measure "no-cds" -Xshare:off
+measure "default" ""
+if [ -f "$JSA" ]; then
+  measure "appcds" "-XX:SharedArchiveFile=$JSA -Xlog:disable -Xlog:all=warning:stderr"
+fi
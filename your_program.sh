@@ -15,10 +15,17 @@ set -e # Exit early if any commands fail
 (
   cd "$(dirname "$0")" # Ensure compile steps are run within the repository directory
   mvn -q -B package -Ddir=/tmp/codecrafters-build-shell-java
+  ./create_cds_archive.sh
 )
 
 # Copied from .codecrafters/run.sh
 #
 # - Edit this to change how your program runs locally
 # - Edit .codecrafters/run.sh to change how your program runs remotely
+# the class-data-sharing archive from compile is used when present; JVM warnings go to stderr so
+# an archive that no longer matches the jar cannot print into the shell's stdout
+JSA=/tmp/codecrafters-build-shell-java/codecrafters-shell.jsa
+if [ -f "$JSA" ]; then
+  exec java -XX:SharedArchiveFile="$JSA" -Xlog:disable -Xlog:all=warning:stderr --enable-preview -jar /tmp/codecrafters-build-shell-java/codecrafters-shell.jar "$@"
+fi
 exec java --enable-preview -jar /tmp/codecrafters-build-shell-java/codecrafters-shell.jar "$@"